@@ -4,7 +4,6 @@ import java.io.PrintWriter;
 import java.time.Duration;
 import java.util.Scanner;
 
-import utils.MCTutils.CNNode;
 import utils.MCTutils.MCTMin;
 import utils.MoveGeneration.GameState;
 import utils.MoveGeneration.MoveGen;
@@ -94,12 +93,12 @@ public class TARS {
                         playingBoard = board;
                     }
                 } else {
-                    CNNode node = mct.search(duration, true);
-                    if (node == null) {
+                    short best = mct.search(duration, true);
+                    if (best == 0) {
                         pen.println("Game Over.");
                         break;
                     }
-                    playingBoard = node.state;
+                    playingBoard = MoveGen.applyLegalMove(best, playingBoard);
                 }
                 playingBoard.printBoard();
                 pen.println("Move:");
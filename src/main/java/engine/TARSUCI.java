@@ -3,6 +3,8 @@ package engine;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
 
 import utils.MCTutils.Engine;
@@ -55,19 +57,27 @@ public class TARSUCI {
      * @param command The command.
      */
     private static void handlePositionCommand(String command) {
-        if (command.contains("startpos")) {
-            engine.setPosition("startpos");
-        } else if (command.contains("fen")) {
-            String fen = command.split("fen ")[1].split(" moves")[0];
-            engine.setPosition(fen);
-        } //if/else
+        String position = "startpos";
+        if (command.contains("fen")) {
+            position = command.split("fen ")[1].split(" moves")[0];
+        } //if
 
+        List<String> moves = new ArrayList<>();
         if (command.contains("moves")) {
-            String[] moves = command.substring(command.indexOf("moves") + 6).split(" ");
-            for (String move : moves) {
-                engine.applyMove(move);
+            for (String move : command.substring(command.indexOf("moves") + 5).trim().split(" ")) {
+                if (!move.isEmpty()) {
+                    moves.add(move);
+                } //if
             } //for
         } //if
+
+        /* The engine only plays the moves it hasn't seen yet */
+        try {
+            engine.setPosition(position, moves);
+        } catch (IllegalArgumentException e) {
+            /* The engine stays at the last position it could reach */
+            pen.println("info string " + e.getMessage());
+        } //try/catch
     } //handlePositionCommand(String)
 
     /**
@@ -2,15 +2,19 @@ package engine;
 
 import java.io.File;
 
-import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.nn.graph.ComputationGraph;
 import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
 import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
 
+import utils.CNNutils.PolicyGameIterator;
 import utils.CNNutils.TARSCNN;
 import utils.CNNutils.TrainingGameIterator;
 
 /**
- * The trainer for the tars NN.
+ * The trainer for the tars NN. Run with -policy to train the value and policy
+ * network instead (see TARSCNN.buildPolicyGraphConfiguration), for PUCT search.
  * 
  * @author Sebastian Manza
  */
@@ -25,6 +29,11 @@ public class TARSZeroTrainer {
             int numFeatures = 13;
             int numEpochs = 25;
 
+            if (args.length > 0 && args[0].equals("-policy")) {
+                trainPolicy(trainingCsv, validationCsv, batchSize, numFeatures, numEpochs);
+                return;
+            } // if
+
             /* Initializing the iterators */
             DataSetIterator trainIterator = new TrainingGameIterator(trainingCsv, batchSize, numFeatures);
             DataSetIterator validationIterator = new TrainingGameIterator(validationCsv, batchSize, numFeatures);
@@ -64,13 +73,56 @@ public class TARSZeroTrainer {
         } // try/catch
     } // main
 
+    /**
+     * Train the value and policy network on positions with the move played from
+     * them (see PolicyGameIterator), saving it after each epoch.
+     * 
+     * @param trainingCsv   the training positions
+     * @param validationCsv the validation positions
+     * @param batchSize     the size of a batch
+     * @param numFeatures   the number of planes
+     * @param numEpochs     the number of epochs
+     * @throws Exception if a file can't be read
+     */
+    private static void trainPolicy(String trainingCsv, String validationCsv, int batchSize, int numFeatures,
+            int numEpochs) throws Exception {
+        MultiDataSetIterator trainIterator = new PolicyGameIterator(trainingCsv, batchSize, numFeatures);
+        MultiDataSetIterator validationIterator = new PolicyGameIterator(validationCsv, batchSize, numFeatures);
+
+        ComputationGraph tars = TARSCNN.BuildPolicyCNN();
+        for (int epoch = 0; epoch < numEpochs; epoch++) {
+            System.out.println("Starting epoch " + (epoch + 1) + "/" + numEpochs);
+            int currentBatch = 0;
+            while (trainIterator.hasNext()) {
+                tars.fit(trainIterator.next());
+                currentBatch++;
+                if ((currentBatch % 1000) == 0) {
+                    System.out.printf("\rPositions Analyzed: %d", currentBatch * batchSize);
+                } // if
+            } // while
+            System.out.println();
+            TARSCNN.saveModel(tars, new File("TARS-P1." + epoch + ".zip"));
+
+            /* Evaluate the training and validation loss (value and policy together) */
+            double trainLoss = evaluateLoss(tars, trainIterator);
+            System.out.println("Epoch " + (epoch + 1) + " Training Loss: " + trainLoss);
+            double validationLoss = evaluateLoss(tars, validationIterator);
+            System.out.println("Epoch " + (epoch + 1) + " Validation Loss: " + validationLoss);
+
+            trainIterator.reset();
+            validationIterator.reset();
+        } // for
+
+        System.out.println("Training complete.");
+    } // trainPolicy(String, String, int, int, int)
+
     /**
      * Evaluate the validation loss over the entire validation dataset.
      * 
      * @param model              the network to evaluate
      * @param validationIterator The data iterator to use
      */
-    private static double evaluateLoss(MultiLayerNetwork model, DataSetIterator validationIterator) {
+    private static double evaluateLoss(ComputationGraph model, DataSetIterator validationIterator) {
         double totalLoss = 0.0;
         int batches = 0;
         validationIterator.reset();
@@ -82,25 +134,25 @@ public class TARSZeroTrainer {
         } // while
 
         return totalLoss / batches; // Avg loss
-    } // evaluateLoss(MultiLayerNetwork, DataSetIterator)
-} // TARSZeroTrainer
+    } // evaluateLoss(ComputationGraph, DataSetIterator)
+
     /**
-     * Evaluate the validation loss over the entire validation dataset.
+     * Evaluate the loss over the entire dataset, for the value and policy network.
      * 
      * @param model              the network to evaluate
      * @param validationIterator The data iterator to use
      */
-    private static double evaluateLoss(ComputationGraph model, DataSetIterator validationIterator) {
+    private static double evaluateLoss(ComputationGraph model, MultiDataSetIterator validationIterator) {
         double totalLoss = 0.0;
         int batches = 0;
         validationIterator.reset();
 
         while (validationIterator.hasNext() && batches < 5000) {
-            DataSet batch = validationIterator.next();
+            MultiDataSet batch = validationIterator.next();
             totalLoss += model.score(batch);
             batches++;
         } // while
 
         return totalLoss / batches; // Avg loss
-    } // evaluateLoss(MultiLayerNetwork, DataSetIterator)
+    } // evaluateLoss(ComputationGraph, MultiDataSetIterator)
 } // TARSZeroTrainer
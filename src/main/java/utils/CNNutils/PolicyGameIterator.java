@@ -0,0 +1,172 @@
+package utils.CNNutils;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.NoSuchElementException;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.MultiDataSet;
+import org.nd4j.linalg.dataset.api.MultiDataSetPreProcessor;
+import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+import utils.MoveGeneration.GameState;
+import utils.PGNutils.CentipawnToWin;
+import utils.UserInterface.UIUtils;
+
+/**
+ * An iterator to read in the data to train the value and policy CNN off of (see
+ * TARSCNN.buildPolicyGraphConfiguration). It reads the same csv as
+ * TrainingGameIterator, with a third column: the move played next, in UCI
+ * format. The labels are the win chance, then the move as a one-hot policy.
+ * Lines without a move only train the value (their policy is masked out).
+ * 
+ * @author Sebastian Manza
+ */
+public class PolicyGameIterator implements MultiDataSetIterator {
+
+    private BufferedReader reader;
+    private final int batchSize;
+    private final int numFeatures;
+    private final String csvFilePath;
+    private boolean endOfFile = false;
+    private MultiDataSetPreProcessor preProcessor;
+
+    /**
+     * Initialize the iterator.
+     * @param csvFilePath The path of the csv file
+     * @param batchSize The size of the batch
+     * @param numFeatures The number of planes
+     * @throws IOException If the reader goes wrong
+     */
+    public PolicyGameIterator(String csvFilePath, int batchSize, int numFeatures) throws IOException {
+        this.reader = new BufferedReader(new FileReader(csvFilePath));
+        this.batchSize = batchSize;
+        this.numFeatures = numFeatures;
+        this.csvFilePath = csvFilePath;
+    } // PolicyGameIterator
+
+    /**
+     * Check if there is something next
+     */
+    @Override
+    public boolean hasNext() {
+        return !endOfFile;
+    } // hasNext
+
+    /**
+     * Iterate to the next line, adjusted for batch size
+     */
+    @Override
+    public MultiDataSet next() {
+        return next(batchSize);
+    } // next
+
+    /**
+     * Return the next batch. Rows left empty at the end of the file are masked
+     * out of both labels.
+     */
+    @Override
+    public MultiDataSet next(int num) {
+        if (!hasNext()) {
+            throw new NoSuchElementException("No more elements in the iterator");
+        } // if
+
+        try {
+            INDArray inputBatch = Nd4j.create(num, numFeatures, 8, 8);
+            INDArray valueBatch = Nd4j.create(num, 1);
+            INDArray policyBatch = Nd4j.create(num, TARSCNN.POLICY_SIZE);
+            INDArray valueMask = Nd4j.create(num, 1);
+            INDArray policyMask = Nd4j.create(num, 1);
+
+            int count = 0;
+            String line = null;
+            while (count < num && (line = reader.readLine()) != null) {
+                String[] parts = line.split(",");
+                double winPercentage = CentipawnToWin.convert(parts[1]);
+
+                /* Convert the FEN to a tensor */
+                GameState state = new GameState(true, true);
+                state.setBoardFEN(parts[0]);
+                inputBatch.get(NDArrayIndex.point(count)).assign(TrainingGen.createTensor(state));
+
+                /* Copy the output value, and the move played if there was one */
+                valueBatch.putScalar(count, winPercentage);
+                valueMask.putScalar(count, 1);
+                if (parts.length > 2 && parts[2].length() >= 4) {
+                    short move = UIUtils.uciToMove(parts[2].substring(0, 4));
+                    policyBatch.putScalar(new int[] { count, TARSCNN.policyIndex(move) }, 1);
+                    policyMask.putScalar(count, 1);
+                } // if
+
+                count++;
+            } // while
+
+            if (line == null) {
+                endOfFile = true;
+            } // if
+
+            MultiDataSet dataSet = new MultiDataSet(new INDArray[] { inputBatch },
+                    new INDArray[] { valueBatch, policyBatch }, null, new INDArray[] { valueMask, policyMask });
+
+            if (preProcessor != null) {
+                preProcessor.preProcess(dataSet);
+            } // if
+
+            return dataSet;
+
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading from CSV file", e);
+        } // try/catch
+    } // next(int)
+
+    @Override
+    public boolean resetSupported() {
+        return true;
+    }
+
+    @Override
+    public void reset() {
+        try {
+            /* Close the reader if it isn't */
+            if (reader != null) {
+                reader.close();
+            } // if
+
+            /* Open the file and reinitialize the reader */
+            this.reader = new BufferedReader(new FileReader(csvFilePath));
+            this.endOfFile = false;
+
+        } catch (IOException e) {
+            throw new RuntimeException("Error resetting CSV reader", e);
+        } // try/catch
+    } // reset
+
+    @Override
+    public boolean asyncSupported() {
+        return false;
+    }
+
+    /**
+     * Set the pre processor
+     */
+    @Override
+    public void setPreProcessor(MultiDataSetPreProcessor preProcessor) {
+        this.preProcessor = preProcessor;
+    }
+
+    /**
+     * Get the pre processor
+     */
+    @Override
+    public MultiDataSetPreProcessor getPreProcessor() {
+        return preProcessor;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("Remove not supported"); // not applicable for this iterator
+    }
+} // PolicyGameIterator
@@ -23,6 +23,8 @@ import org.nd4j.linalg.activations.Activation;
 import org.nd4j.linalg.learning.config.Adam;
 import org.nd4j.linalg.lossfunctions.LossFunctions;
 
+import utils.MoveGeneration.MoveGen;
+
 /**
  * The class that builds and saves the CNN. Utilizes the deeplearning4j library.
  * 
@@ -34,79 +36,155 @@ public class TARSCNN {
         private static final int FILTERS = 32;
         private static final int NUM_BLOCKS = 1;
         private static final int SE_CHANNELS = 16;
-        
-        public static ComputationGraphConfiguration buildGraphConfiguration() {
-            ComputationGraphConfiguration.GraphBuilder gb = new NeuralNetConfiguration.Builder()
-                .updater(new Adam(0.0001))
-                .weightInit(WeightInit.XAVIER)
-                .graphBuilder()
-                .addInputs("input")
-                .setInputTypes(InputType.convolutional(BOARD_DIM, BOARD_DIM, INPUT_CHANNELS))
-                .addLayer("input_conv", new ConvolutionLayer.Builder(3, 3)
-                    .nIn(INPUT_CHANNELS)
-                    .nOut(FILTERS)
-                    .stride(1, 1)
-                    .padding(1, 1)
-                    .activation(Activation.RELU)
-                    .build(), "input");
-    
-                    String blockInput = "input_conv";
-                    for (int i = 1; i <= NUM_BLOCKS; i++) {
-                        String prefix = "res" + i;
-                        gb.addLayer(prefix + "_conv1", new ConvolutionLayer.Builder(3, 3)
-                            .nOut(FILTERS)
-                            .stride(1, 1)
-                            .padding(1, 1)
-                            .activation(Activation.RELU)
-                            .build(), blockInput);
-                        gb.addLayer(prefix + "_conv2", new ConvolutionLayer.Builder(3, 3)
-                            .nOut(FILTERS)
-                            .stride(1, 1)
-                            .padding(1, 1)
-                            .activation(Activation.IDENTITY)
-                            .build(), prefix + "_conv1");
-                        gb.addLayer(prefix + "_se_pool", new GlobalPoolingLayer.Builder()
-                            .poolingType(PoolingType.AVG)
-                            .build(), prefix + "_conv2");
-                        gb.addLayer(prefix + "_se_dense1", new DenseLayer.Builder()
-                            .nOut(SE_CHANNELS)
-                            .activation(Activation.RELU)
-                            .build(), prefix + "_se_pool");
-                        gb.addLayer(prefix + "_se_dense2", new DenseLayer.Builder()
-                            .nOut(2 * FILTERS)
-                            .activation(Activation.IDENTITY)
-                            .build(), prefix + "_se_dense1");
-                        gb.addVertex(prefix + "_se_W", new SubsetVertex(0, FILTERS - 1), prefix + "_se_dense2");
-                        gb.addVertex(prefix + "_se_B", new SubsetVertex(FILTERS, 2 * FILTERS - 1), prefix + "_se_dense2");
-                        gb.addLayer(prefix + "_se_W_sigmoid", new ActivationLayer.Builder()
-                            .activation(Activation.SIGMOID)
-                            .build(), prefix + "_se_W");
-                        gb.addVertex(prefix + "_se_W_reshaped", new ReshapeVertex(-1, FILTERS, 1, 1), prefix + "_se_W_sigmoid");
-                        gb.addVertex(prefix + "_se_B_reshaped", new ReshapeVertex(-1, FILTERS, 1, 1), prefix + "_se_B");
-                        gb.addLayer(prefix + "_se_W_up", new Upsampling2D.Builder(BOARD_DIM).build(), prefix + "_se_W_reshaped");
-                        gb.addLayer(prefix + "_se_B_up", new Upsampling2D.Builder(BOARD_DIM).build(), prefix + "_se_B_reshaped");
-                        gb.addVertex(prefix + "_se_scale", new ElementWiseVertex(ElementWiseVertex.Op.Product), prefix + "_conv2", prefix + "_se_W_up");
-                        gb.addVertex(prefix + "_se_out", new ElementWiseVertex(ElementWiseVertex.Op.Add), prefix + "_se_scale", prefix + "_se_B_up");
-                        gb.addVertex(prefix + "_add", new ElementWiseVertex(ElementWiseVertex.Op.Add), blockInput, prefix + "_se_out");
-                        gb.addLayer(prefix + "_out", new ActivationLayer.Builder()
-                            .activation(Activation.RELU)
-                            .build(), prefix + "_add");
-                        blockInput = prefix + "_out";
-                    }
-                    gb.addLayer("global_pool", new GlobalPoolingLayer.Builder()
-                        .poolingType(PoolingType.AVG)
-                        .build(), blockInput)
-                      .addLayer("dense_value", new DenseLayer.Builder()
-                        .nOut(128)
-                        .activation(Activation.RELU)
-                        .build(), "global_pool")
-                      .addLayer("output", new OutputLayer.Builder(LossFunctions.LossFunction.MSE)
-                        .nOut(1)
-                        .activation(Activation.SIGMOID)
-                        .build(), "dense_value")
-                      .setOutputs("output");
-                    return gb.build();
-        }
+        private static final int POLICY_FILTERS = 8;
+
+        /** The size of the policy output: a move's origin square times 64 plus its destination. */
+        public static final int POLICY_SIZE = BOARD_DIM * BOARD_DIM * BOARD_DIM * BOARD_DIM;
+
+    /**
+     * Build the value network: the residual tower, then a single white win chance
+     * ("output").
+     *
+     * @return the configuration
+     */
+    public static ComputationGraphConfiguration buildGraphConfiguration() {
+        ComputationGraphConfiguration.GraphBuilder gb = graphBuilder();
+        addValueHead(gb, addTower(gb));
+        gb.setOutputs("output");
+        return gb.build();
+    } // buildGraphConfiguration()
+
+    /**
+     * Build the value and policy network: the same tower and value head as
+     * buildGraphConfiguration, plus a policy head ("policy") giving a probability
+     * for every from-to move (see policyIndex). Its outputs are the value, then
+     * the policy.
+     *
+     * @return the configuration
+     */
+    public static ComputationGraphConfiguration buildPolicyGraphConfiguration() {
+        ComputationGraphConfiguration.GraphBuilder gb = graphBuilder();
+        String tower = addTower(gb);
+        addValueHead(gb, tower);
+        gb.addLayer("policy_conv", new ConvolutionLayer.Builder(1, 1)
+                .nOut(POLICY_FILTERS)
+                .stride(1, 1)
+                .activation(Activation.RELU)
+                .build(), tower)
+            .addLayer("policy", new OutputLayer.Builder(LossFunctions.LossFunction.MCXENT)
+                .nOut(POLICY_SIZE)
+                .activation(Activation.SOFTMAX)
+                .build(), "policy_conv")
+            .setOutputs("output", "policy");
+        return gb.build();
+    } // buildPolicyGraphConfiguration()
+
+    /**
+     * Start a graph taking a board tensor (see TrainingGen.createTensor).
+     *
+     * @return the builder
+     */
+    private static ComputationGraphConfiguration.GraphBuilder graphBuilder() {
+        return new NeuralNetConfiguration.Builder()
+            .updater(new Adam(0.0001))
+            .weightInit(WeightInit.XAVIER)
+            .graphBuilder()
+            .addInputs("input")
+            .setInputTypes(InputType.convolutional(BOARD_DIM, BOARD_DIM, INPUT_CHANNELS));
+    } // graphBuilder()
+
+    /**
+     * Add the input convolution and the residual blocks (with squeeze and
+     * excitation) to a graph.
+     *
+     * @param gb the graph
+     * @return the name of the last layer
+     */
+    private static String addTower(ComputationGraphConfiguration.GraphBuilder gb) {
+        gb.addLayer("input_conv", new ConvolutionLayer.Builder(3, 3)
+            .nIn(INPUT_CHANNELS)
+            .nOut(FILTERS)
+            .stride(1, 1)
+            .padding(1, 1)
+            .activation(Activation.RELU)
+            .build(), "input");
+        String blockInput = "input_conv";
+        for (int i = 1; i <= NUM_BLOCKS; i++) {
+            String prefix = "res" + i;
+            gb.addLayer(prefix + "_conv1", new ConvolutionLayer.Builder(3, 3)
+                .nOut(FILTERS)
+                .stride(1, 1)
+                .padding(1, 1)
+                .activation(Activation.RELU)
+                .build(), blockInput);
+            gb.addLayer(prefix + "_conv2", new ConvolutionLayer.Builder(3, 3)
+                .nOut(FILTERS)
+                .stride(1, 1)
+                .padding(1, 1)
+                .activation(Activation.IDENTITY)
+                .build(), prefix + "_conv1");
+            gb.addLayer(prefix + "_se_pool", new GlobalPoolingLayer.Builder()
+                .poolingType(PoolingType.AVG)
+                .build(), prefix + "_conv2");
+            gb.addLayer(prefix + "_se_dense1", new DenseLayer.Builder()
+                .nOut(SE_CHANNELS)
+                .activation(Activation.RELU)
+                .build(), prefix + "_se_pool");
+            gb.addLayer(prefix + "_se_dense2", new DenseLayer.Builder()
+                .nOut(2 * FILTERS)
+                .activation(Activation.IDENTITY)
+                .build(), prefix + "_se_dense1");
+            gb.addVertex(prefix + "_se_W", new SubsetVertex(0, FILTERS - 1), prefix + "_se_dense2");
+            gb.addVertex(prefix + "_se_B", new SubsetVertex(FILTERS, 2 * FILTERS - 1), prefix + "_se_dense2");
+            gb.addLayer(prefix + "_se_W_sigmoid", new ActivationLayer.Builder()
+                .activation(Activation.SIGMOID)
+                .build(), prefix + "_se_W");
+            gb.addVertex(prefix + "_se_W_reshaped", new ReshapeVertex(-1, FILTERS, 1, 1), prefix + "_se_W_sigmoid");
+            gb.addVertex(prefix + "_se_B_reshaped", new ReshapeVertex(-1, FILTERS, 1, 1), prefix + "_se_B");
+            gb.addLayer(prefix + "_se_W_up", new Upsampling2D.Builder(BOARD_DIM).build(), prefix + "_se_W_reshaped");
+            gb.addLayer(prefix + "_se_B_up", new Upsampling2D.Builder(BOARD_DIM).build(), prefix + "_se_B_reshaped");
+            gb.addVertex(prefix + "_se_scale", new ElementWiseVertex(ElementWiseVertex.Op.Product), prefix + "_conv2", prefix + "_se_W_up");
+            gb.addVertex(prefix + "_se_out", new ElementWiseVertex(ElementWiseVertex.Op.Add), prefix + "_se_scale", prefix + "_se_B_up");
+            gb.addVertex(prefix + "_add", new ElementWiseVertex(ElementWiseVertex.Op.Add), blockInput, prefix + "_se_out");
+            gb.addLayer(prefix + "_out", new ActivationLayer.Builder()
+                .activation(Activation.RELU)
+                .build(), prefix + "_add");
+            blockInput = prefix + "_out";
+        } // for
+        return blockInput;
+    } // addTower(GraphBuilder)
+
+    /**
+     * Add the value head to a graph: white's win chance ("output").
+     *
+     * @param gb    the graph
+     * @param tower the name of the tower's last layer
+     */
+    private static void addValueHead(ComputationGraphConfiguration.GraphBuilder gb, String tower) {
+        gb.addLayer("global_pool", new GlobalPoolingLayer.Builder()
+            .poolingType(PoolingType.AVG)
+            .build(), tower)
+          .addLayer("dense_value", new DenseLayer.Builder()
+            .nOut(128)
+            .activation(Activation.RELU)
+            .build(), "global_pool")
+          .addLayer("output", new OutputLayer.Builder(LossFunctions.LossFunction.MSE)
+            .nOut(1)
+            .activation(Activation.SIGMOID)
+            .build(), "dense_value");
+    } // addValueHead(GraphBuilder, String)
+
+    /**
+     * Get a move's place in the policy output: its origin square times 64 plus its
+     * destination (so promotions to different pieces share a place).
+     *
+     * @param move the move
+     * @return its index, from 0 to POLICY_SIZE - 1
+     */
+    public static int policyIndex(short move) {
+        return MoveGen.origin(move) * BOARD_DIM * BOARD_DIM + MoveGen.destination(move);
+    } // policyIndex(short)
+
     /**
      * Build the CNN.
      * 
@@ -146,6 +224,17 @@ public class TARSCNN {
         return model;
     } // BuildCNN()
 
+    /**
+     * Build the value and policy CNN (see buildPolicyGraphConfiguration).
+     * 
+     * @return an initialized ComputationGraph
+     */
+    public static ComputationGraph BuildPolicyCNN() {
+        ComputationGraph model = new ComputationGraph(buildPolicyGraphConfiguration());
+        model.init();
+        return model;
+    } // BuildPolicyCNN()
+
     /**
      * Save the TARS model to a file.
      *
@@ -1,9 +1,11 @@
 package utils.MCTutils;
 
 import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 
 import utils.MoveGeneration.GameState;
-import utils.MoveGeneration.MoveGen;
 import utils.UserInterface.UIUtils;
 
 /**
@@ -15,27 +17,41 @@ import utils.UserInterface.UIUtils;
 public class Engine {
 
     /** The tree to do the work on (the real engine) */
-    private MCTMin gameTree;
+    private final MCTMin gameTree;
 
-    private MCT gameTreeMCT;
+    /** The tree used when there's little time (random playouts) */
+    private final MCT gameTreeMCT;
+
+    /** The position the trees were set up from ("startpos" or a FEN) */
+    private String basePosition;
+
+    /** The moves played since basePosition, in UCI format */
+    private final List<String> playedMoves = new ArrayList<>();
+
+    /**
+     * The time the last search had but didn't use (it stopped early, or there was
+     * only one move), added to the next move's time
+     */
+    private Duration bankedTime = Duration.ZERO;
 
     /**
-     * Build an Engine instance, creating a new MCT.
+     * Build an Engine instance, creating its trees at the starting position. The
+     * trees are kept for the engine's life, and start over for each new position.
      */
     public Engine() {
         System.setProperty("OMP_NUM_THREADS", "1");
-        this.gameTree = new MCTMin(new GameState(true, true));
-        this.gameTreeMCT = new MCT(new GameState(true, true));
+        GameState initialState = new GameState(true, true);
+        initialState.setBoardStartingPos();
+        this.gameTree = new MCTMin(initialState);
+        this.gameTreeMCT = new MCT(initialState);
+        this.basePosition = "startpos";
     } // Engine()
 
     /**
      * Reset the engine to the initial state.
      */
     public void reset() {
-        GameState initialState = new GameState(true, true);
-        initialState.setBoardStartingPos();
-        gameTree = new MCTMin(initialState);
-        gameTreeMCT = new MCT(initialState);
+        setPosition("startpos");
     } // reset()
 
     /**
@@ -50,26 +66,64 @@ public class Engine {
         } else {
             state.setBoardFEN(fen);
         } // if/else
-        gameTree = new MCTMin(state);
-        gameTreeMCT = new MCT(state);
+        gameTree.newRoot(state);
+        gameTreeMCT.newRoot(state);
+        bankedTime = Duration.ZERO;
+        basePosition = fen;
+        playedMoves.clear();
     } // setPosition(fen)
 
     /**
-     * Apply a move to the current position.
+     * Set the position to a starting position followed by some moves. If it
+     * continues the current position (the same start, with the moves played so
+     * far first), only the new moves are played, so the trees keep what they
+     * found about the positions reached. Otherwise the trees start over.
+     * 
+     * @param fen   the starting position (a FEN or "startpos")
+     * @param moves the moves played since (in UCI format)
+     */
+    public void setPosition(String fen, List<String> moves) {
+        boolean continues = fen.equals(basePosition) && moves.size() >= playedMoves.size()
+                && moves.subList(0, playedMoves.size()).equals(playedMoves);
+        int first = playedMoves.size();
+        if (!continues) {
+            setPosition(fen);
+            first = 0;
+        } // if
+        for (String move : moves.subList(first, moves.size())) {
+            applyMove(move);
+        } // for
+    } // setPosition(String, List<String>)
+
+    /**
+     * Apply a move to the current position. If either tree can't play it, both
+     * are rebuilt at the position before it, so they never disagree.
      * 
      * @param move the move (in UCI format)
+     * @throws IllegalArgumentException if the move can't be played
      */
     public void applyMove(String move) {
-        short applyMove = UIUtils.uciToMove(move);
         try {
-            gameTree = new MCTMin(MoveGen.applyMove(applyMove, gameTree.root.state));
-            gameTreeMCT = new MCT(MoveGen.applyMove(applyMove, gameTreeMCT.root.state));
-        } catch (Exception e) {
+            /* Keep the subtree under the move in each tree */
+            short applyMove = UIUtils.uciToMove(move);
+            gameTree.advance(applyMove);
+            gameTreeMCT.advance(applyMove);
+        } catch (RuntimeException e) {
+            /* The first tree may have played it already; start both over from the game */
+            List<String> moves = new ArrayList<>(playedMoves);
+            setPosition(basePosition);
+            for (String played : moves) {
+                applyMove(played);
+            } // for
+            throw new IllegalArgumentException("Can't play " + move + ": " + e.getMessage(), e);
         } // try/catch
+        playedMoves.add(move);
     } // applyMove(String)
 
     /**
-     * Search for the best move, based off of some paramaters.
+     * Search for the best move, based off of some paramaters. Unless the move's
+     * time is fixed, it gets what the last search saved on top of its share of the
+     * clock, up to a tenth of the clock.
      * 
      * @param depth    if searching by depth the depth to search
      * @param movetime the amount of time for the move, if entered manually
@@ -82,28 +136,40 @@ public class Engine {
     public String search(int depth, int movetime, int wtime, int btime, int winc, int binc) {
         try {
             Duration time;
-            if (gameTree.root.state.turnColor) {
+            int clock;
+            if (gameTree.arena.turnColor(gameTree.arena.root())) {
                 time = Duration.ofMillis((int) ((wtime - winc) * 0.03) + winc - 200);
+                clock = wtime;
             } else {
                 time = Duration.ofMillis((int) ((btime - binc) * 0.03) + binc - 200);
+                clock = btime;
             } // if
-            if (movetime != 1) {
+            boolean fixedTime = movetime != 1;
+            if (fixedTime) {
                 time = Duration.ofMillis(movetime);
-            } // if
+            } else {
+                /* Spend what the last search saved, as far as a tenth of the clock allows */
+                Duration room = Duration.ofMillis(clock / 10).minus(time);
+                if (room.compareTo(bankedTime) > 0) {
+                    room = bankedTime;
+                } // if
+                if (!room.isNegative()) {
+                    time = time.plus(room);
+                } // if
+            } // if/else
             short move;
+            Instant start = Instant.now();
             int compared = Duration.ofMillis(6000).compareTo(time);
             if (compared < 0) {
-                CNNode bestState = gameTree.search(time, false);
-                if (bestState == null) {
-                    return "0000";
-                }
-                move = bestState.move;
+                move = gameTree.search(time, false);
             } else {
-                MCTNode bestStateMCT = gameTreeMCT.search(time, false);
-                if (bestStateMCT == null) {
-                    return "0000";
-                }
-                move = bestStateMCT.move;
+                move = gameTreeMCT.search(time, false);
+            }
+            /* Keep what this search didn't use for the next one */
+            Duration unused = time.minus(Duration.between(start, Instant.now()));
+            bankedTime = (fixedTime || unused.isNegative()) ? Duration.ZERO : unused;
+            if (move == 0) {
+                return "0000";
             }
             
             return UIUtils.moveToUCI(move);
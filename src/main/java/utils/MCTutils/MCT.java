@@ -3,18 +3,19 @@ package utils.MCTutils;
 import java.io.PrintWriter;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.SplittableRandom;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
 
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
 
+import utils.CNNutils.TARSCNN;
 import utils.MoveGeneration.GameState;
-import utils.MoveGeneration.MoveGen;
+import utils.MoveGeneration.MoveList;
 import utils.TablebaseUtils.JavaTablebaseBridge;
 import utils.UserInterface.UIUtils;
 
@@ -29,204 +30,493 @@ public class MCT {
     /** The exploration parameter, used to balance exploration vs exploitation */
     private static final double EXPLORATION_PARAM = 0.8;
 
-    /** The root node of the move. (i.e. the move we are exploring from) */
-    MCTNode root;
+    /**
+     * The number of threads searching at once (-DsearchThreads=n, the number of
+     * processors by default).
+     */
+    private static final int SEARCH_THREADS = Math.max(1,
+            Integer.getInteger("searchThreads", Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * Whether new trees search root parallel by default (-DrootParallel=true):
+     * each thread grows its own tree from the root, and only the statistics of
+     * the root's children are added up. Otherwise every thread searches one shared
+     * tree.
+     */
+    private static final boolean ROOT_PARALLEL = Boolean.getBoolean("rootParallel");
+
+    /** How often a search's progress is printed (when it prints scenarios). */
+    private static final Duration INFO_INTERVAL = Duration.ofSeconds(1);
+
+    /** How many playouts a searching thread plays between copies of the root's statistics. */
+    private static final int SNAPSHOT_INTERVAL = 1024;
+
+    /** The nodes of the tree (the root is the position we are exploring from) */
+    final NodeArena arena;
 
     /**
-     * Creates a new Monte Carlo Tree
+     * The trees of the other threads when searching root parallel (this tree is
+     * the first thread's), else empty.
+     */
+    private final MCT[] helpers;
+
+    /**
+     * The root's children as a thread searching this tree last copied them. The
+     * search reads these while the workers run, since a tree can be pruned (and
+     * its nodes moved) under it.
+     */
+    private volatile RootStats snapshot;
+
+    /**
+     * Creates a new Monte Carlo Tree, searched root parallel if -DrootParallel is
+     * set.
      * 
      * @param state The most recent GameState
      */
     public MCT(GameState state) {
-        this.root = new MCTNode(state, null);
+        this(state, ROOT_PARALLEL);
     } // MCT(Board)
 
     /**
-     * Searches for the best possible move in the tree.
+     * Creates a new Monte Carlo Tree.
      * 
-     * @param duration       The amount of time to search for
+     * @param state        The most recent GameState
+     * @param rootParallel whether each thread searches its own tree (splitting the
+     *                     nodes between them) instead of one shared tree
+     */
+    public MCT(GameState state, boolean rootParallel) {
+        int trees = (rootParallel) ? SEARCH_THREADS : 1;
+        this.arena = new NodeArena(NodeArena.DEFAULT_CAPACITY / trees, false);
+        this.arena.newRoot(state);
+        this.helpers = new MCT[trees - 1];
+        for (int i = 0; i < this.helpers.length; i++) {
+            this.helpers[i] = new MCT(state, NodeArena.DEFAULT_CAPACITY / trees);
+        } // for
+    } // MCT(GameState, boolean)
+
+    /**
+     * Creates one thread's tree for a root parallel search.
+     * 
+     * @param state    The most recent GameState
+     * @param capacity the most nodes the tree holds
+     */
+    private MCT(GameState state, int capacity) {
+        this.arena = new NodeArena(capacity, false);
+        this.arena.newRoot(state);
+        this.helpers = new MCT[0];
+    } // MCT(GameState, int)
+
+    /**
+     * Start the tree over from a position, reusing its nodes' memory.
+     * 
+     * @param state The most recent GameState
+     */
+    public void newRoot(GameState state) {
+        arena.newRoot(state);
+        for (MCT helper : helpers) {
+            helper.newRoot(state);
+        } // for
+    } // newRoot(GameState)
+
+    /**
+     * Play a move at the root, keeping the subtree under it from earlier searches
+     * (see NodeArena.advance).
+     * 
+     * @param move the move played (see MoveGen.sameMove for how it is matched)
+     * @throws IllegalArgumentException if the move isn't legal at the root
+     */
+    public void advance(short move) {
+        arena.advance(move);
+        for (MCT helper : helpers) {
+            helper.advance(move);
+        } // for
+    } // advance(short)
+
+    /**
+     * Searches for the best possible move in the tree. It returns at once if there
+     * is only one legal move, and stops before its time is up once the best move
+     * is decided (see SearchClock), leaving the rest on the clock.
+     * 
+     * @param duration       The amount of time to search for (at most)
      * @param printScenarios Whethere to print likely scenarios
-     * @return A board representing the best possible move
+     * @return the best move, or 0 if the game is over
      * @throws Exception if something goes wrong with the PrintWriter or
      *                   ExecutorService.
      */
-    public MCTNode search(Duration duration, boolean printScenarios) throws Exception {
-        Instant start = Instant.now();
-        Instant deadline = start.plus(duration);
+    public short search(Duration duration, boolean printScenarios) throws Exception {
         PrintWriter pen = new PrintWriter(System.out, true);
+        int root = arena.root();
 
-        int processors = Runtime.getRuntime().availableProcessors();
-        //int processors = 1;
-        ExecutorService executor = Executors.newFixedThreadPool(processors);
-
-        Runnable MCTSworker = () -> {
-            while (Instant.now().isBefore(deadline)) {
-                try {
-                    MCTNode selectedNode = select(root);
-                    MCTNode expandedNode = expand(selectedNode);
-                    double winPoints = simulate(expandedNode);
-                    backPropagate(expandedNode, winPoints);
-                } catch (Exception e) {
-                } // try/catch
-            } // while
-        };
-        for (int i = 0; i < processors; i++) {
-            executor.submit(MCTSworker);
+        /* There's nothing to think about with only one move */
+        short onlyMove = arena.onlyMove(root);
+        if (onlyMove != 0) {
+            return onlyMove;
+        } // if
+
+        SearchClock clock = new SearchClock(duration, simulations());
+        Instant start = clock.start();
+        Instant nextInfo = start.plus(INFO_INTERVAL);
+
+        /* A thread prunes its tree itself unless it shares it with the others */
+        boolean ownsTree = helpers.length > 0 || SEARCH_THREADS == 1;
+        snapshot = null;
+        for (MCT helper : helpers) {
+            helper.snapshot = null;
         } // for
-        executor.shutdown();
-        executor.awaitTermination(duration.toMillis(), TimeUnit.MILLISECONDS);
 
-        /* Find the best move based on the node that was played the most */
-        if (root.nextMoves.isEmpty()) {
-            return null;
+        do {
+            ExecutorService executor = Executors.newFixedThreadPool(SEARCH_THREADS);
+            for (int i = 0; i < SEARCH_THREADS; i++) {
+                /* Root parallel, the first thread searches this tree and the rest their own */
+                MCT tree = (i == 0 || helpers.length == 0) ? this : helpers[i - 1];
+                executor.submit(() -> tree.searchUntil(clock, ownsTree));
+            } // for
+            executor.shutdown();
+            /* Wait for every worker to stop before the tree is read (or reused) */
+            while (!executor.awaitTermination(SearchClock.CHECK_INTERVAL.toMillis(), TimeUnit.MILLISECONDS)) {
+                /* The trees can't be read while they're searched, only the copies of their roots */
+                RootStats stats = mergedSnapshots();
+                if (stats == null) {
+                    continue;
+                } // if
+                clock.stopIfDecided(stats.visits, stats.games);
+                if (printScenarios && !Instant.now().isBefore(nextInfo)) {
+                    printProgress(pen, start, stats);
+                    nextInfo = nextInfo.plus(INFO_INTERVAL);
+                } // if
+            } // while
+
+            /* The workers stopped early because the shared tree filled up: prune it and go on */
+            if (clock.running() && arena.needsPruning()) {
+                arena.prune();
+            } // if
+        } while (clock.running());
+
+        /* Find the best move based on the node that was played the most (in every tree) */
+        int count = arena.childCount(root);
+        if (count == 0) {
+            return 0;
         } // if
-        MCTNode bestNode = Collections.max(root.nextMoves, Comparator.comparingInt(n -> n.playOuts.get()));
+        int[] visits = new int[count];
+        double[] values = new double[count];
+        mergeRootChildren(visits, values);
+        int best = mostVisited(visits);
 
         if (printScenarios) {
+            if (clock.stoppedEarly()) {
+                pen.printf("Stopped early, %.1fs saved\n", clock.remaining().toMillis() / 1000.0);
+            } // if
             printLikelyScenario(root);
-            printMoveChoices(root);
-            pen.println("Simulated " + root.playOuts.get() + " games. Simulated win rate: "
-                    + (bestNode.wins.get() / bestNode.playOuts.get() * 100));
+            printMoveChoices(visits, values);
+            pen.println("Simulated " + simulations() + " games. Simulated win rate: "
+                    + (values[best] / visits[best] * 100));
         } // if
         /* Return the move. */
-        return bestNode;
+        return arena.move(arena.firstChild(root) + best);
     } // search(Duration)
 
+    /**
+     * Search this tree on the calling thread until the search is stopped, or
+     * until the tree fills up if other threads search it too (it can only be
+     * pruned once they've all stopped).
+     * 
+     * @param clock    when to stop
+     * @param ownsTree whether this thread is the only one searching the tree, so
+     *                 it can prune the tree itself
+     */
+    private void searchUntil(SearchClock clock, boolean ownsTree) {
+        int root = arena.root();
+        SearchPath path = new SearchPath();
+        int playouts = 0;
+        while (clock.running()) {
+            if (++playouts % SNAPSHOT_INTERVAL == 0) {
+                publishSnapshot();
+            } // if
+            if (arena.needsPruning()) {
+                if (!ownsTree) {
+                    publishSnapshot();
+                    return;
+                } // if
+                arena.prune();
+                /* Prune moves to a new root */
+                root = arena.root();
+            } // if
+            try {
+                int selectedNode = select(root, path);
+                double winPoints;
+                if (path.endsInRepetition(arena)) {
+                    /* The line came back to a position on it (through a transposition) */
+                    winPoints = 0.5;
+                } else {
+                    int expandedNode = expand(selectedNode);
+                    if (expandedNode != selectedNode) {
+                        path.add(expandedNode);
+                    } // if
+                    winPoints = simulate(expandedNode);
+                } // if/else
+                backPropagate(path, winPoints);
+            } catch (Exception e) {
+            } // try/catch
+        } // while
+    } // searchUntil(SearchClock, boolean)
+
+    /**
+     * Add up the statistics of the root's children over every tree (just this one
+     * unless searching root parallel). Every tree has the same root, so each of
+     * their children is added to this tree's child for the same move.
+     * 
+     * @param visits filled with the total visits of each of this tree's root
+     *               children, in order
+     * @param values filled with their total values
+     */
+    private void mergeRootChildren(int[] visits, double[] values) {
+        int first = arena.firstChild(arena.root());
+        int count = Math.min(visits.length, arena.childCount(arena.root()));
+        for (int i = 0; i < count; i++) {
+            visits[i] = arena.visits(first + i);
+            values[i] = arena.value(first + i);
+        } // for
+        for (MCT helper : helpers) {
+            NodeArena tree = helper.arena;
+            int treeFirst = tree.firstChild(tree.root());
+            for (int child = treeFirst; child < treeFirst + tree.childCount(tree.root()); child++) {
+                for (int i = 0; i < count; i++) {
+                    if (arena.move(first + i) == tree.move(child)) {
+                        visits[i] += tree.visits(child);
+                        values[i] += tree.value(child);
+                        break;
+                    } // if
+                } // for
+            } // for
+        } // for
+    } // mergeRootChildren(int[], double[])
+
+    /**
+     * Copy the statistics of the root's children for the search to read (see
+     * snapshot). Only called by a thread searching this tree.
+     */
+    private void publishSnapshot() {
+        int root = arena.root();
+        int first = arena.firstChild(root);
+        int count = arena.childCount(root);
+        short[] moves = new short[count];
+        int[] visits = new int[count];
+        double[] values = new double[count];
+        for (int i = 0; i < count; i++) {
+            moves[i] = arena.move(first + i);
+            visits[i] = arena.visits(first + i);
+            values[i] = arena.value(first + i);
+        } // for
+        snapshot = new RootStats(moves, visits, values, arena.visits(root));
+    } // publishSnapshot()
+
+    /**
+     * Add up the last copies of every tree's root (like mergeRootChildren, but
+     * safe while the trees are searched).
+     * 
+     * @return the merged statistics, in the order of this tree's copy, or null if
+     *         this tree hasn't published one yet
+     */
+    private RootStats mergedSnapshots() {
+        RootStats own = snapshot;
+        if (own == null) {
+            return null;
+        } // if
+        int[] visits = own.visits.clone();
+        double[] values = own.values.clone();
+        long games = own.games;
+        for (MCT helper : helpers) {
+            RootStats stats = helper.snapshot;
+            if (stats == null) {
+                continue;
+            } // if
+            games += stats.games;
+            for (int child = 0; child < stats.moves.length; child++) {
+                for (int i = 0; i < own.moves.length; i++) {
+                    if (own.moves[i] == stats.moves[child]) {
+                        visits[i] += stats.visits[child];
+                        values[i] += stats.values[child];
+                        break;
+                    } // if
+                } // for
+            } // for
+        } // for
+        return new RootStats(own.moves, visits, values, games);
+    } // mergedSnapshots()
+
+    /**
+     * Find the most visited of the root's children from their merged visits.
+     * 
+     * @param visits the visits of each child (see mergeRootChildren)
+     * @return the index of the child in the root's children
+     */
+    private static int mostVisited(int[] visits) {
+        int best = 0;
+        for (int i = 1; i < visits.length; i++) {
+            if (visits[i] > visits[best]) {
+                best = i;
+            } // if
+        } // for
+        return best;
+    } // mostVisited(int[])
+
+    /**
+     * Count the games simulated from the root, over every tree.
+     * 
+     * @return the root's visits in every tree added up
+     */
+    private long simulations() {
+        long games = arena.visits(arena.root());
+        for (MCT helper : helpers) {
+            games += helper.arena.visits(helper.arena.root());
+        } // for
+        return games;
+    } // simulations()
+
+    /**
+     * Print how a search is going: the games simulated so far and the move that
+     * leads.
+     * 
+     * @param pen   where to print
+     * @param start when the search started
+     * @param stats the merged copies of the roots (see mergedSnapshots)
+     */
+    private static void printProgress(PrintWriter pen, Instant start, RootStats stats) {
+        if (stats.moves.length == 0) {
+            return;
+        } // if
+        int best = mostVisited(stats.visits);
+        pen.printf("%.1fs: simulated %d games, best move %s (%d playouts, win rate %.2f)\n",
+                Duration.between(start, Instant.now()).toMillis() / 1000.0, stats.games,
+                UIUtils.toNotation(stats.moves[best]), stats.visits[best],
+                (stats.values[best] / Math.max(stats.visits[best], 1)) * 100);
+    } // printProgress(PrintWriter, Instant, RootStats)
+
+    /**
+     * Find the child of a node that was played the most.
+     * 
+     * @param node the node
+     * @return the child, or NodeArena.NONE if it has none
+     */
+    private int mostVisitedChild(int node) {
+        int first = arena.firstChild(node);
+        int best = NodeArena.NONE;
+        for (int child = first; child < first + arena.childCount(node); child++) {
+            if (best == NodeArena.NONE || arena.visits(child) > arena.visits(best)) {
+                best = child;
+            } // if
+        } // for
+        return best;
+    } // mostVisitedChild(int)
+
     /**
      * Calculates a value for a node to select using UCB1
      * 
-     * @param node The node to calculate
+     * @param node        The node to calculate
+     * @param exploration The exploration parameter times sqrt(ln(N)), N being
+     *                    its parent's visits (the same for every child)
      * @return The value of the node
      */
-    private static double UCT(MCTNode node) {
-
-        /* Make sure the last moves playouts isn't null */
-        double lastMovePlayouts = node.lastMove != null ? node.lastMove.playOuts.get() : 1;
+    private double UCT(int node, double exploration) {
 
         /* Return a high value if the node has never been played */
-        if (node.playOuts.get() == 0) {
+        int playOuts = arena.visits(node);
+        if (playOuts == 0) {
             return 1000.0;
         } // if
 
         /* Calculate the Upper Confidence Bound */
-        double UCB1 = (node.wins.get() / node.playOuts.get())
-                + (EXPLORATION_PARAM * Math.sqrt((Math.log(lastMovePlayouts)) / node.playOuts.get()));
+        double UCB1 = (arena.value(node) / playOuts) + (exploration * UCBTables.invSqrt(playOuts));
         return UCB1;
-    } // UCT(node)
+    } // UCT(int, double)
 
     /**
      * Selects the best possible node from the current root with current knowledge.
      * 
      * @param node The beginning node.
+     * @param path filled with the nodes on the way, ending with the one selected
      * @return The best possible node from the beginning node.
      */
-    private static MCTNode select(MCTNode node) {
+    private int select(int node, SearchPath path) {
+        path.clear();
+        path.add(node);
         while (true) {
-            if (node.nextMoves.isEmpty() || node.playOuts.get() == 0) {
+            int count = arena.childCount(node);
+            int visits = arena.visits(node);
+            if (count == 0 || visits == 0 || path.endsInRepetition(arena)) {
                 return node;
             }
-            /* Return the node with the highest UCB */
-            node = Collections.max(node.nextMoves, Comparator.comparingDouble(MCT::UCT));
+            /* Move to the child with the highest UCB (the parent's log term is shared) */
+            double exploration = EXPLORATION_PARAM * UCBTables.sqrtLog(visits);
+            int first = arena.firstChild(node);
+            int best = first;
+            double bestValue = UCT(first, exploration);
+            for (int child = first + 1; child < first + count; child++) {
+                double value = UCT(child, exploration);
+                if (value > bestValue) {
+                    best = child;
+                    bestValue = value;
+                } // if
+            } // for
+            node = best;
+            path.add(node);
         }
-    } // select(MCTNode)
+    } // select(int, SearchPath)
 
     /**
-     * Expands the tree one level deeper to continue searching
+     * Expands the tree one level deeper to continue searching. Only one thread
+     * expands a node; the others don't wait for it, and until its children are
+     * published they just evaluate the node itself.
      * 
      * @param node The first node reached with no children.
      * @return The expanded node.
      */
-    private static MCTNode expand(MCTNode node) {
-        /*
-         * Synchronize the expansion process so multiple threads don't attempt to expand
-         * the same node
-         */
-        if (!node.isExpanded) {
-            synchronized (node) {
-                if (!node.isExpanded) {
-                    node.isExpanded = true;
-
-                    /* Add all possible children to the node */
-                    short[] nextMoves = node.state.nextMoves();
-                    for (short move : nextMoves) {
-                        try {
-                            GameState gameState = MoveGen.applyMove(move, node.state);
-                            /* If the ending board is not legal */
-                            if (gameState == null) {
-                                continue;
-                            } // if
-                            MCTNode newNode = new MCTNode(gameState, node);
-                            node.newChild(newNode);
-                            newNode.move = move;
-                        } catch (Exception e) {
-                        } // try/catch
-                    } // for
-                }
-            }
-        }
-        /* Return the node if theres no possible next move */
-        if (node.nextMoves.isEmpty()) {
+    private int expand(int node) {
+        arena.expand(node);
+
+        /* Return the node if theres no possible next move (or no room for them) */
+        if (arena.childCount(node) == 0) {
             return node;
         } // if
 
-        return node.nextMoves.peek();
-    } // expand(node)
+        return arena.firstChild(node);
+    } // expand(int)
 
     /**
      * Randomly simulates the finish of the game from the current game state.
      * 
      * @param node The terminating node
-     * @param root The original root of the tree
      * @return the number of win-points
      */
 
-    private static double simulate(MCTNode node) throws Exception {
-        /* Set the current board and the maximum depth to simulate to */
-        GameState gameState = node.state;
+    private double simulate(int node) throws Exception {
+        /* Build the board once, then play the moves on it in place */
+        GameState gameState = arena.state(node);
+
+        /* A drawn node (fifty-move rule or repetition) needs no playout */
+        if (arena.isDraw(node)) {
+            return 0.5;
+        } // if
         int depth = 0;
         SplittableRandom random = new SplittableRandom();
-        int pieceCount = gameState.numPieces();
-        long PawnPos = gameState.bitBoards[GameState.WPAWNS] & gameState.bitBoards[GameState.BPAWNS];
-        int FiftyMoveRule = 0;
         JavaTablebaseBridge bridge = new JavaTablebaseBridge();
         /* Run the loop while the game is undecided */
         while (true) {
-            short[] nextMoves = gameState.nextMoves();
-            int numMov = nextMoves.length;
-            int lastPieceCount = pieceCount;
-            long lastPawnPos = PawnPos;
-            pieceCount = gameState.numPieces();
-            PawnPos = gameState.bitBoards[GameState.WPAWNS] & gameState.bitBoards[GameState.BPAWNS];
-
-            if (pieceCount == lastPieceCount && PawnPos == lastPawnPos) {
-                FiftyMoveRule++;
-            } else {
-                FiftyMoveRule = 0;
-            }
-
-            while (true) {
-                // Ensure nextMoves has elements to select
-                if (numMov == 0) {
-                    return gameState.vicPoints(); // No valid moves, return victory points
-                }
-                if (pieceCount < 6) {
-                    double score = bridge.probeWDL(gameState);
-                    return score;
-                }
-
-                int rand = random.nextInt(numMov);
-                short move = nextMoves[rand];
-                GameState nextState = MoveGen.applyMove(move, gameState);
+            MoveList nextMoves = MoveList.forPly(depth);
+            int numMov = gameState.legalMoves(nextMoves);
 
-                // Check if the move leads to a valid state
-                if (nextState != null) {
-                    gameState = nextState;
-                    break;
-                } else {
-                    nextMoves[rand] = nextMoves[--numMov];
-                }
+            // No legal moves means checkmate or stalemate
+            if (numMov == 0) {
+                return gameState.vicPoints();
             }
-            if (FiftyMoveRule > 50) {
+            if (gameState.numPieces() < 6) {
+                double score = bridge.probeWDL(gameState);
+                return score;
+            }
+
+            /* Every move is legal, so any random one can be played */
+            gameState.makeMove(nextMoves.get(random.nextInt(numMov)));
+            if (gameState.isDraw()) {
                 return 0.5; // Draw
             }
             if (depth++ > 0) {
@@ -240,74 +530,149 @@ public class MCT {
     }
 
     /**
-     * Increments the total wins of every previous node by the points based on
-     * reward.
+     * Increments the total wins of every node on the search's path by the points
+     * based on reward.
      * Increments total playouts by 1 for each regardless.
      * 
-     * @param node      The node to backpropagate from (terminating node)
+     * @param path      The nodes the search went through (ending with the
+     *                  terminating node)
      * @param winPoints The number of points to be given.
-     * @param length    The length of the simulation
      */
-    private static void backPropagate(MCTNode node, double winPoints) {
-        MCTNode curNode = node;
-
-        /* Synchronize the calculations */
-        while (curNode != null) {
-            synchronized (curNode) {
-
-                /* Add the rewards. */
-                curNode.playOuts.incrementAndGet();
-                if (curNode.state.turnColor != curNode.state.engineColor) {
-                    curNode.wins.addAndGet(winPoints);
-                } else {
-                    curNode.wins.addAndGet(1 - winPoints);
-                } // if/else
-
-            } // synchronized(node)
-            curNode = curNode.lastMove;
-        } // while
-    } // backPropogate(MCTNode, double, MCTNode)
+    private void backPropagate(SearchPath path, double winPoints) {
+        /* The statistics are atomic, so no node is locked on the way up */
+        for (int i = path.length() - 1; i >= 0; i--) {
+            int curNode = path.get(i);
+            /* Add the rewards. */
+            arena.addVisit(curNode);
+            if (arena.turnColor(curNode) != arena.engineColor()) {
+                arena.addValue(curNode, winPoints);
+            } else {
+                arena.addValue(curNode, 1 - winPoints);
+            } // if/else
+        } // for
+    } // backPropogate(SearchPath, double)
 
     /**
      * Prints the computers most likely scenario.
      * 
-     * @param pen  The printwriter object to print with
      * @param root The root of the tree
      * @throws Exception if the printWriter object fails
      */
-    private static void printLikelyScenario(MCTNode root) throws Exception {
-        MCTNode node = root;
-        while (!node.nextMoves.isEmpty()) {
-            node.state.printBoard();
+    private void printLikelyScenario(int root) throws Exception {
+        int node = root;
+        SearchPath path = new SearchPath();
+        path.add(node);
+        while (arena.childCount(node) != 0 && !path.endsInRepetition(arena)) {
+            arena.state(node).printBoard();
             System.out.printf(
                     "Board was played %d times with a winrate of %.2f%% \n",
-                    node.playOuts.get(), (node.wins.get() / node.playOuts.get()) * 100);
-            node = Collections.max(node.nextMoves, Comparator.comparingInt(n -> n.playOuts.get()));
+                    arena.visits(node), (arena.value(node) / arena.visits(node)) * 100);
+            node = mostVisitedChild(node);
+            path.add(node);
         } // while
-    } // printLikelyScenario(PrintWriter, MCTNode)
+    } // printLikelyScenario(int)
 
     /**
      * Print the move choices ranked from worst to best stemming from the root.
+     * 
+     * @param visits the root children's visits (see mergeRootChildren)
+     * @param values their values
      */
-    private static void printMoveChoices(MCTNode root) {
-        int size = root.nextMoves.size();
-        for (int i = 0; i < size; i++) {
-            MCTNode worst = Collections.min(root.nextMoves, Comparator.comparingInt(n -> n.playOuts.get()));
+    private void printMoveChoices(int[] visits, double[] values) {
+        int first = arena.firstChild(arena.root());
+        int[] choices = IntStream.range(0, visits.length).boxed()
+                .sorted(Comparator.comparingInt(i -> visits[i])).mapToInt(Integer::intValue).toArray();
+        for (int worst : choices) {
             System.out.printf(
                     "Move: %s | Win rate: %.2f | Playouts: %d\n",
-                    UIUtils.toNotation(worst.move), ((worst.wins.get() / worst.playOuts.get()) * 100),
-                    worst.playOuts.get());
-            root.nextMoves.remove(worst);
+                    UIUtils.toNotation(arena.move(first + worst)), ((values[worst] / visits[worst]) * 100),
+                    visits[worst]);
         } // for
     } // printMoveChoices
 
     public INDArray getPolicy() {
-        INDArray policy = Nd4j.zeros(4096);
-        for (MCTNode node : root.nextMoves) {
-            int index = Long.numberOfTrailingZeros(MoveGen.moveParts[node.move][0]) * 64
-                    + Long.numberOfTrailingZeros(MoveGen.moveParts[node.move][1]);
-            policy.putScalar(index, ((double) node.playOuts.get() / (double) root.playOuts.get()));
+        INDArray policy = Nd4j.zeros(TARSCNN.POLICY_SIZE);
+        int root = arena.root();
+        int first = arena.firstChild(root);
+        int[] visits = new int[arena.childCount(root)];
+        mergeRootChildren(visits, new double[visits.length]);
+        long games = simulations();
+        for (int i = 0; i < visits.length; i++) {
+            short move = arena.move(first + i);
+            policy.putScalar(TARSCNN.policyIndex(move), ((double) visits[i] / (double) games));
         }
         return policy;
     }
+
+    /**
+     * Benchmark the shared tree against root parallel search, searching the same
+     * positions for the same time with -DsearchThreads threads each.
+     * 
+     * @param args [seconds per search]
+     * @throws Exception if a search fails
+     */
+    public static void main(String[] args) throws Exception {
+        Duration time = Duration.ofMillis((long) (((args.length > 0) ? Double.parseDouble(args[0]) : 3) * 1000));
+        String[] fens = {
+                "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+                "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+                "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10" };
+
+        /* The first round warms up */
+        for (int round = 0; round < 2; round++) {
+            for (boolean rootParallel : new boolean[] { false, true }) {
+                long games = 0;
+                long nanos = 0;
+                StringBuilder moves = new StringBuilder();
+                for (String fen : fens) {
+                    GameState state = new GameState(true, true);
+                    state.setBoardFEN(fen);
+                    MCT tree = new MCT(state, rootParallel);
+                    /* Searches can stop early, so the rate is over the time they took */
+                    long searchStart = System.nanoTime();
+                    moves.append(' ').append(UIUtils.toNotation(tree.search(time, false)));
+                    nanos += System.nanoTime() - searchStart;
+                    games += tree.simulations();
+                } // for
+                if (round == 1) {
+                    System.out.printf("%s, %d threads: %.0f games/s, moves:%s%n",
+                            (rootParallel) ? "root parallel" : "shared tree", SEARCH_THREADS,
+                            games / (nanos / 1e9), moves);
+                } // if
+            } // for
+        } // for
+    } // main(String[])
+
+    /**
+     * A copy of the statistics of a root's children, and the games simulated
+     * from the root.
+     */
+    private static class RootStats {
+        /** The children's moves. */
+        private final short[] moves;
+
+        /** Their visits. */
+        private final int[] visits;
+
+        /** Their values. */
+        private final double[] values;
+
+        /** The root's visits. */
+        private final long games;
+
+        /**
+         * Create a copy.
+         *
+         * @param moves  the children's moves
+         * @param visits their visits
+         * @param values their values
+         * @param games  the root's visits
+         */
+        RootStats(short[] moves, int[] visits, double[] values, long games) {
+            this.moves = moves;
+            this.visits = visits;
+            this.values = values;
+            this.games = games;
+        } // RootStats(short[], int[], double[], long)
+    } // RootStats
 } // MCT
@@ -1,14 +1,15 @@
 package utils.MCTutils;
 
-import java.io.File;
 import java.io.PrintWriter;
 import java.time.Duration;
-import java.time.Instant;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Comparator;
-import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntToDoubleFunction;
+import java.util.stream.IntStream;
 
+import org.deeplearning4j.nn.graph.ComputationGraph;
 import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
@@ -16,7 +17,6 @@ import org.nd4j.linalg.factory.Nd4j;
 import utils.CNNutils.TARSCNN;
 import utils.CNNutils.TrainingGen;
 import utils.MoveGeneration.GameState;
-import utils.MoveGeneration.MoveGen;
 import utils.TablebaseUtils.JavaTablebaseBridge;
 import utils.UserInterface.UIUtils;
 
@@ -29,13 +29,42 @@ import utils.UserInterface.UIUtils;
  */
 public class MCTCNN {
 
-    /** The exploration parameter, used to balance exploration vs exploitation */
-    private static double EXPLORATION_PARAM = 0.8;
+    /**
+     * The exploration parameter a search starts with, used to balance exploration
+     * vs exploitation
+     */
+    private static final double EXPLORATION_PARAM = 0.8;
+
+    /** How much the exploration parameter drops every EXPLORATION_PLAYOUTS playouts of a search */
+    private static final double EXPLORATION_DECAY = 0.1;
+
+    /** The playouts between drops of the exploration parameter. */
+    private static final int EXPLORATION_PLAYOUTS = 10000;
+
+    /**
+     * The exploration parameter of the current search. Only the thread running
+     * the search changes it.
+     */
+    private volatile double explorationParam = EXPLORATION_PARAM;
 
-    /** The root node of the move. (i.e. the move we are exploring from) */
-    final MCTNode root;
+    /** The nodes of the tree (the root is the position we are exploring from) */
+    final NodeArena arena;
 
-    public static final MultiLayerNetwork tars = TARSCNN.loadModel(new File("TARS-V5.6.zip"));
+    /** The file of the TARS model the tree evaluates with (unless it searches with PUCT). */
+    private static final String MODEL = "TARS-V5.6.zip";
+
+    /**
+     * The number of threads searching the tree at once (-DsearchThreads=n, the
+     * number of processors by default).
+     */
+    private static final int SEARCH_THREADS = Math.max(1,
+            Integer.getInteger("searchThreads", Runtime.getRuntime().availableProcessors()));
+
+    /** A copy of TARS for each search thread, or null in PUCT mode (see Networks). */
+    private final MultiLayerNetwork[] networks;
+
+    /** A copy of the policy network for each search thread, in PUCT mode, else null. */
+    private final ComputationGraph[] policyNetworks;
 
     /**
      * Creates a new Monte Carlo Tree
@@ -43,188 +72,424 @@ public class MCTCNN {
      * @param state The most recent GameState
      */
     public MCTCNN(GameState state) {
-        this.root = new MCTNode(state, null);
+        this.arena = new NodeArena(NodeArena.DEFAULT_CAPACITY, false, NodeArena.TRANSPOSITIONS, Networks.PUCT);
+        this.arena.newRoot(state);
+        this.networks = (Networks.PUCT) ? null : Networks.valueNetworks(MODEL, SEARCH_THREADS);
+        this.policyNetworks = (Networks.PUCT) ? Networks.policyNetworks(SEARCH_THREADS) : null;
     } // MCTCNN(Board)
 
     /**
-     * Searches for the best possible move in the tree.
+     * Start the tree over from a position, reusing its nodes' memory.
+     * 
+     * @param state The most recent GameState
+     */
+    public void newRoot(GameState state) {
+        arena.newRoot(state);
+    } // newRoot(GameState)
+
+    /**
+     * Play a move at the root, keeping the subtree under it from earlier searches
+     * (see NodeArena.advance).
+     * 
+     * @param move the move played (see MoveGen.sameMove for how it is matched)
+     * @throws IllegalArgumentException if the move isn't legal at the root
+     */
+    public void advance(short move) {
+        arena.advance(move);
+    } // advance(short)
+
+    /**
+     * Searches for the best possible move in the tree. It returns at once if there
+     * is only one legal move, and stops before its time is up once the best move
+     * is decided (see SearchClock), leaving the rest on the clock.
      * 
-     * @param duration       The amount of time to search for
+     * @param duration       The amount of time to search for (at most)
      * @param printScenarios Whethere to print likely scenarios
-     * @return A board representing the best possible move
+     * @return the best move, or 0 if the game is over
      * @throws Exception if something goes wrong with the PrintWriter or
      *                   ExecutorService.
      */
-    public MCTNode search(Duration duration, boolean printScenarios) throws Exception {
-        Instant start = Instant.now();
-        Instant deadline = start.plus(duration);
+    public short search(Duration duration, boolean printScenarios) throws Exception {
         PrintWriter pen = new PrintWriter(System.out, true);
-        // int processors = Runtime.getRuntime().availableProcessors();
-        // ExecutorService executor = Executors.newFixedThreadPool(processors);
-
-        // Runnable MCTCNNworker = () -> {
-        while (Instant.now().isBefore(deadline)) {
-            try {
-                MCTNode selectedNode = select(root);
-                INDArray winPoints;
-                if (selectedNode.state.numPieces() < 6) {
-                    ArrayList<MCTNode> endNode = new ArrayList<>();
-                    endNode.add(selectedNode);
-                    JavaTablebaseBridge bridge = new JavaTablebaseBridge();
-                    winPoints = Nd4j.scalar(bridge.probeWDL(selectedNode.state));
-                    backPropagate(endNode, winPoints);
-                    continue;
-                }
-                ArrayList<MCTNode> expandedNodes = expand(selectedNode);
-
-                if (expandedNodes == null) {
-                    ArrayList<MCTNode> endNode = new ArrayList<>();
-                    endNode.add(selectedNode);
-                    double wins = selectedNode.state.vicPoints();
-                    winPoints = Nd4j.scalar(wins);
-                    backPropagate(endNode, winPoints);
-                } else {
-                    winPoints = simulateWithTars(expandedNodes, tars);
-                    backPropagate(expandedNodes, winPoints);
-                }
-                if (root.playOuts.get() % 10000 == 0) {
-                    EXPLORATION_PARAM -= 0.1;
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-            } // try/catch
-        } // while
-        // };
-        // for (int i = 0; i < processors; i++) {
-        // executor.submit(MCTCNNworker);
-        // }
+        int root = arena.root();
+
+        /* There's nothing to think about with only one move */
+        short onlyMove = arena.onlyMove(root);
+        if (onlyMove != 0) {
+            return onlyMove;
+        } // if
+
+        SearchClock clock = new SearchClock(duration, arena.visits(root));
+        long startVisits = arena.visits(root);
+        explorationParam = EXPLORATION_PARAM;
+        do {
+            ExecutorService executor = Executors.newFixedThreadPool(SEARCH_THREADS);
+            for (int i = 0; i < SEARCH_THREADS; i++) {
+                int thread = i;
+                executor.submit(() -> {
+                    SearchPath path = new SearchPath();
+                    /* A full tree can only be pruned once every worker has stopped */
+                    while (clock.running() && !arena.needsPruning()) {
+                        try {
+                            select(root, path);
+                            if (Networks.PUCT) {
+                                evaluateWithPolicy(path, policyNetworks[thread]);
+                            } else {
+                                evaluate(path, networks[thread]);
+                            } // if/else
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                        } finally {
+                            releaseVirtualLoss(path);
+                        } // try/catch/finally
+                    } // while
+                });
+            } // for
+            executor.shutdown();
+            /* Let every worker finish its last evaluation before the tree is read (or reused) */
+            while (!executor.awaitTermination(SearchClock.CHECK_INTERVAL.toMillis(), TimeUnit.MILLISECONDS)) {
+                clock.stopIfDecided(rootVisits(root), arena.visits(root));
+                /* Explore less as the search's playouts add up */
+                long playouts = arena.visits(root) - startVisits;
+                explorationParam = EXPLORATION_PARAM - EXPLORATION_DECAY * (playouts / EXPLORATION_PLAYOUTS);
+            } // while
+
+            if (clock.running() && arena.needsPruning()) {
+                arena.prune();
+            } // if
+        } while (clock.running());
 
-        // executor.shutdown();
-        // executor.awaitTermination(duration.toMillis(), TimeUnit.MILLISECONDS);
         /* Find the best move based on the node that was played the most */
-        if (root.nextMoves.isEmpty()) {
-            return null;
+        int bestNode = bestChild(root, arena::visits);
+        if (bestNode == NodeArena.NONE) {
+            return 0;
         } // if
-        MCTNode bestNode = Collections.max(root.nextMoves, Comparator.comparingInt(n -> n.playOuts.get()));
 
         if (printScenarios) {
+            if (clock.stoppedEarly()) {
+                pen.printf("Stopped early, %.1fs saved\n", clock.remaining().toMillis() / 1000.0);
+            } // if
             printMoveChoices(root);
-            pen.printf("Simulated %d games. Simulated win rate: %.2f\n", root.playOuts.get(),
-                    (bestNode.wins.get() / bestNode.playOuts.get() * 100));
+            pen.printf("Simulated %d games. Simulated win rate: %.2f\n", arena.visits(root),
+                    (arena.value(bestNode) / arena.visits(bestNode) * 100));
         } // if
         /* Return the move. */
-        return bestNode;
+        return arena.move(bestNode);
     } // search(Duration)
 
     /**
-     * Calculates a value for a node to select using UCB1
+     * Evaluate the node a search selected: by the tablebase, by the result if the
+     * game is over there, or else by TARS at each of its new children. If another
+     * thread is expanding it (or there's no room for children), TARS evaluates the
+     * node itself instead. Children already visited through a transposition
+     * aren't evaluated again; what they know is backed up instead.
      * 
-     * @param node The node to calculate
-     * @return The value of the node
+     * @param path    the nodes the search went through, ending with the one it
+     *                selected
+     * @param network this thread's copy of TARS
+     */
+    private void evaluate(SearchPath path, MultiLayerNetwork network) {
+        int selectedNode = path.last();
+        if (scoreDirectly(path)) {
+            return;
+        } // if
+        boolean expanded = expand(selectedNode, path);
+        int numChildren = arena.childCount(selectedNode);
+
+        if (numChildren == 0 && arena.isExpanded(selectedNode)) {
+            /* The game is over */
+            double wins = (arena.isDraw(selectedNode)) ? 0.5 : arena.state(selectedNode).vicPoints();
+            backPropagate(path, wins);
+        } else if (!expanded) {
+            INDArray winPoints = simulateWithTars(new int[] { selectedNode }, 1, network);
+            backPropagate(path, enginePoints(selectedNode, winPoints.getDouble(0)));
+        } else {
+            int first = arena.firstChild(selectedNode);
+            int[] unknown = new int[numChildren];
+            int numUnknown = 0;
+            for (int child = first; child < first + numChildren; child++) {
+                if (arena.visits(child) == 0) {
+                    unknown[numUnknown++] = child;
+                } // if
+            } // for
+            INDArray winPoints = (numUnknown > 0) ? simulateWithTars(unknown, numUnknown, network) : null;
+            int next = 0;
+            for (int child = first; child < first + numChildren; child++) {
+                double points = (next < numUnknown && unknown[next] == child)
+                        ? enginePoints(child, winPoints.getDouble(next++))
+                        : knownPoints(child);
+                path.add(child);
+                try {
+                    backPropagate(path, points);
+                } finally {
+                    path.removeLast();
+                } // try/finally
+            } // for
+        } // if/else
+    } // evaluate(SearchPath, MultiLayerNetwork)
+
+    /**
+     * Evaluate the node a search selected in PUCT mode: by the tablebase, by the
+     * result if the game is over there, or else by the policy network at the node
+     * alone. Its value is backed up, and if this thread expands the node its
+     * children get their priors from the policy.
+     * 
+     * @param path    the nodes the search went through, ending with the one it
+     *                selected
+     * @param network this thread's copy of the policy network
      */
-    private static double UCT(MCTNode node) {
+    private void evaluateWithPolicy(SearchPath path, ComputationGraph network) {
+        int selectedNode = path.last();
+        if (scoreDirectly(path)) {
+            return;
+        } // if
+        GameState state = arena.state(selectedNode);
+        if (!arena.isExpanded(selectedNode) || arena.childCount(selectedNode) > 0) {
+            /* The value, then the chance of each from-to move */
+            INDArray[] output = network.output(TrainingGen.createTensor(state));
+            INDArray policy = output[1];
+            arena.expand(selectedNode, move -> policy.getDouble(0, TARSCNN.policyIndex((short) move)));
+            if (!arena.isExpanded(selectedNode) || arena.childCount(selectedNode) > 0) {
+                backPropagate(path, enginePoints(selectedNode, output[0].getDouble(0)));
+                return;
+            } // if
+        } // if
+        /* The game is over */
+        backPropagate(path, (arena.isDraw(selectedNode)) ? 0.5 : state.vicPoints());
+    } // evaluateWithPolicy(SearchPath, ComputationGraph)
+
+    /**
+     * Back up a score for the node a search selected if it needs no network: a
+     * repetition on the search's path is a draw, and a position with few enough
+     * pieces is looked up in the tablebase.
+     * 
+     * @param path the nodes the search went through, ending with the one it
+     *             selected
+     * @return true if the node was scored, else false
+     */
+    private boolean scoreDirectly(SearchPath path) {
+        int selectedNode = path.last();
+        if (path.endsInRepetition(arena)) {
+            /* The line came back to a position on it (through a transposition) */
+            backPropagate(path, 0.5);
+            return true;
+        } else if (arena.position(selectedNode).numPieces() < 6 && !arena.isDraw(selectedNode)) {
+            JavaTablebaseBridge bridge = new JavaTablebaseBridge();
+            backPropagate(path, bridge.probeWDL(arena.state(selectedNode)));
+            return true;
+        } // if
+        return false;
+    } // scoreDirectly(SearchPath)
+
+    /**
+     * Get the visits of the root's children.
+     * 
+     * @param root the root
+     * @return the visits of each child, in order
+     */
+    private int[] rootVisits(int root) {
+        int first = arena.firstChild(root);
+        return IntStream.range(first, first + arena.childCount(root)).map(arena::visits).toArray();
+    } // rootVisits(int)
+
+    /**
+     * Find the child of a node that scores the highest.
+     * 
+     * @param node  the node
+     * @param score the score of a child
+     * @return the child, or NodeArena.NONE if it has none
+     */
+    private int bestChild(int node, IntToDoubleFunction score) {
+        int first = arena.firstChild(node);
+        int best = NodeArena.NONE;
+        double bestScore = 0;
+        for (int child = first; child < first + arena.childCount(node); child++) {
+            double childScore = score.applyAsDouble(child);
+            if (best == NodeArena.NONE || childScore > bestScore) {
+                best = child;
+                bestScore = childScore;
+            } // if
+        } // for
+        return best;
+    } // bestChild(int, IntToDoubleFunction)
 
-        /* Make sure the last moves playouts isn't null */
-        double lastMovePlayouts = node.lastMove != null ? node.lastMove.playOuts.get() : 1;
+    /**
+     * Calculates a value for a node to select using UCB1. Searches still running
+     * through a node (its virtual loss) count as visits that were lost.
+     * 
+     * @param node        The node to calculate
+     * @param exploration The exploration parameter times sqrt(ln(N)), N being
+     *                    its parent's visits plus virtual loss (the same for
+     *                    every child)
+     * @return The value of the node
+     */
+    private double UCT(int node, double exploration) {
 
         /* Return a high value if the node has never been played */
-        if (node.playOuts.get() == 0) {
-            return 1000.0 - (node.virtLoss.get() * 1000);
+        int playOuts = arena.visits(node) + arena.virtualLoss(node);
+        if (playOuts == 0) {
+            return 1000.0;
         } // if
 
         /* Calculate the Upper Confidence Bound */
-        double UCB1 = (node.wins.get() / node.playOuts.get())
-                + (EXPLORATION_PARAM * Math.sqrt((Math.log(lastMovePlayouts)) / node.playOuts.get()));
-        return UCB1 - (node.virtLoss.get() * UCB1);
-    } // UCT(node)
+        double UCB1 = (arena.value(node) / playOuts) + (exploration * UCBTables.invSqrt(playOuts));
+        return UCB1;
+    } // UCT(int, double)
+
+    /**
+     * Calculates a value for a node to select using PUCT: its value plus an
+     * exploration term led by its prior, shrinking as it is visited. Searches
+     * still running through a node count as visits that were lost.
+     * 
+     * @param node        The node to calculate
+     * @param exploration The PUCT constant times sqrt(N), N being its parent's
+     *                    visits plus virtual loss
+     * @param firstPlay   The value given to a node never visited (its parent's,
+     *                    from this side)
+     * @return The value of the node
+     */
+    private double PUCT(int node, double exploration, double firstPlay) {
+        int timesAnalyzed = arena.visits(node);
+        int playOuts = timesAnalyzed + arena.virtualLoss(node);
+        double winProbability = (timesAnalyzed == 0) ? firstPlay : arena.value(node) / playOuts;
+        return winProbability + (exploration * arena.prior(node) / (1 + playOuts));
+    } // PUCT(int, double, double)
+
+    /**
+     * Find the child of a node with the highest UCB1 (or PUCT) score, working out
+     * the node's part of the exploration term once for all of them.
+     * 
+     * @param node the node (with children)
+     * @return the child to search
+     */
+    private int selectChild(int node) {
+        int count = arena.childCount(node);
+        int first = arena.firstChild(node);
+        int parentVisits = arena.visits(node) + arena.virtualLoss(node);
+        if (Networks.PUCT) {
+            return selectChildPUCT(node, first, count, Networks.PUCT_PARAM * Math.sqrt(parentVisits));
+        } // if
+        double exploration = explorationParam * UCBTables.sqrtLog(parentVisits);
+        int best = first;
+        double bestScore = UCT(first, exploration);
+        for (int child = first + 1; child < first + count; child++) {
+            double score = UCT(child, exploration);
+            if (score > bestScore) {
+                best = child;
+                bestScore = score;
+            } // if
+        } // for
+        return best;
+    } // selectChild(int)
+
+    /**
+     * Find the child of a node with the highest PUCT score. Children not yet
+     * visited are valued as the node is, from their side.
+     * 
+     * @param node        the node (visited, with children)
+     * @param first       its first child
+     * @param count       its number of children
+     * @param exploration the PUCT constant times sqrt(N)
+     * @return the child to search
+     */
+    private int selectChildPUCT(int node, int first, int count, double exploration) {
+        double firstPlay = 1 - arena.value(node) / arena.visits(node);
+        int best = first;
+        double bestScore = PUCT(first, exploration, firstPlay);
+        for (int child = first + 1; child < first + count; child++) {
+            double score = PUCT(child, exploration, firstPlay);
+            if (score > bestScore) {
+                best = child;
+                bestScore = score;
+            } // if
+        } // for
+        return best;
+    } // selectChildPUCT(int, int, int, double)
 
     /**
      * Selects the best possible node from the current root with current knowledge.
+     * Every node on the way gets a virtual loss, so other threads spread out over
+     * the tree instead of all following this search (see releaseVirtualLoss).
      * 
      * @param node The beginning node.
+     * @param path filled with the nodes on the way, ending with the one selected
      * @return The best possible node from the beginning node.
      */
-    private static MCTNode select(MCTNode node) {
+    private int select(int node, SearchPath path) {
+        path.clear();
         while (true) {
-            if (node.nextMoves.isEmpty() || node.playOuts.get() == 0 || node.state.numPieces() < 6) {
-                node.virtLoss.incrementAndGet();
+            path.add(node);
+            arena.addVirtualLoss(node, 1);
+            if (arena.childCount(node) == 0 || arena.visits(node) == 0
+                    || path.endsInRepetition(arena) || arena.position(node).numPieces() < 6) {
                 return node;
-            }
-            /* Return the node with the highest UCB */
-            node = Collections.max(node.nextMoves, Comparator.comparingDouble(MCTCNN::UCT));
-        }
-    } // select(MCTCNNNode)
+            } // if
+            /* Move to the child with the highest UCB */
+            node = selectChild(node);
+        } // while
+    } // select(int, SearchPath)
 
     /**
-     * Expands the tree one level deeper to continue searching
+     * Take back the virtual loss select gave a search's path, and expand gave the
+     * children of the node it expanded, once the search is done (even if it
+     * failed).
      * 
-     * @param node The first node reached with no children.
-     * @return The list of expanded nodes.
+     * @param path the nodes the search went through
      */
-    private static ArrayList<MCTNode> expand(MCTNode node) {
-        /*
-         * Synchronize the expansion process so multiple threads don't attempt to expand
-         * the same node
-         */
-        if (!node.isExpanded) {
-            synchronized (node) {
-                if (!node.isExpanded) {
-                    node.isExpanded = true;
-
-                    /* Add all possible children to the node */
-                    short[] nextMoves = node.state.nextMoves();
-                    for (short move : nextMoves) {
-                        try {
-                            GameState gameState = MoveGen.applyMove(move, node.state);
-                            /* If the ending board is not legal */
-                            if (gameState == null) {
-                                continue;
-                            } // if
-                            MCTNode newNode = new MCTNode(gameState, node);
-                            node.newChild(newNode);
-                            newNode.move = move;
-                            newNode.virtLoss.incrementAndGet();
-                        } catch (Exception e) {
-                        } // try/catch
-                    } // for
-                }
-            }
-        }
-        /*
-         * Return the node if theres no possible next move. We need to evaluate the
-         * gamestate
-         */
-        if (node.nextMoves.isEmpty()) {
-            return null;
+    private void releaseVirtualLoss(SearchPath path) {
+        for (int i = 0; i < path.length(); i++) {
+            arena.addVirtualLoss(path.get(i), -1);
+        } // for
+        int expanded = path.expanded();
+        if (expanded != NodeArena.NONE) {
+            int first = arena.firstChild(expanded);
+            for (int child = first; child < first + arena.childCount(expanded); child++) {
+                arena.addVirtualLoss(child, -1);
+            } // for
         } // if
+    } // releaseVirtualLoss(SearchPath)
 
-        return new ArrayList<>(node.nextMoves);
-    } // expand(node)
+    /**
+     * Expands the tree one level deeper to continue searching. Only one thread
+     * expands a node; the others don't wait for it. The new children get a
+     * virtual loss until the search is done (see releaseVirtualLoss).
+     * 
+     * @param node The first node reached with no children.
+     * @param path the search's path, which records the node as expanded
+     * @return true if this thread expanded the node (its children may still be 0
+     *         if the game is over), false if another thread did or there was no
+     *         room for them
+     */
+    private boolean expand(int node, SearchPath path) {
+        if (!arena.expand(node)) {
+            return false;
+        } // if
+        int first = arena.firstChild(node);
+        for (int child = first; child < first + arena.childCount(node); child++) {
+            arena.addVirtualLoss(child, 1);
+        } // for
+        path.setExpanded(node);
+        return true;
+    } // expand(int, SearchPath)
 
     /**
      * Evaluate nodes
      * 
-     * @param moves the list of nodes to evaluate
-     * @param tars
-     * @return
-     * @throws Exception
+     * @param nodes    the nodes to evaluate
+     * @param numMoves the number of nodes
+     * @param tars     the network to evaluate them with
+     * @return white's win chance at each node
      */
-    private static INDArray simulateWithTars(ArrayList<MCTNode> nextMoves, MultiLayerNetwork tars) {
-        int numMoves = nextMoves.size();
-        if (numMoves == 0) {
-            return null;
-            // needs to be evaluated based on terminal state.
-        }
+    private INDArray simulateWithTars(int[] nodes, int numMoves, MultiLayerNetwork tars) {
         INDArray output = null;
         // System.out.println("Evaluating " + numMoves + " children in batches...");
 
         for (int i = 0; i < numMoves; i += 32) {
             int end = Math.min(i + 32, numMoves);
-            List<MCTNode> batch = nextMoves.subList(i, end);
             // Prepare input tensor for batch
-            INDArray batchInput = Nd4j.create(new int[] { batch.size(), 13, 8, 8 });
-            for (int j = 0; j < batch.size(); j++) {
-                INDArray tensor = TrainingGen.createTensor(batch.get(j).state);
+            INDArray batchInput = Nd4j.create(new int[] { end - i, 13, 8, 8 });
+            for (int j = 0; j < end - i; j++) {
+                INDArray tensor = TrainingGen.createTensor(arena.state(nodes[i + j]));
                 tensor = tensor.reshape(13, 8, 8);
                 batchInput.putSlice(j, tensor);
             }
@@ -241,71 +506,86 @@ public class MCTCNN {
     }
 
     /**
-     * Increments the total wins of every previous node by the points based on
-     * reward.
-     * Increments total playouts by 1 for each regardless.
+     * Turn TARS's output at a node (white's win chance) into win points for the
+     * engine.
      * 
-     * @param node      The node to backpropagate from (terminating node)
-     * @param winPoints The number of points to be given.
-     * @param length
+     * @param node     the node evaluated
+     * @param whiteWin white's win chance
+     * @return the engine's win points
+     */
+    private double enginePoints(int node, double whiteWin) {
+        return (arena.engineColor()) ? whiteWin : 1 - whiteWin;
+    } // enginePoints(int, double)
+
+    /**
+     * Turn what a node already knows (from visits through a transposition) into
+     * win points for the engine, in place of evaluating it again.
      * 
+     * @param node the node (visited at least once)
+     * @return the engine's win points
      */
-    private static void backPropagate(ArrayList<MCTNode> nodes, INDArray winPoints) {
-        for (int i = 0; i < nodes.size(); i++) {
-            MCTNode curNode = nodes.get(i);
-
-            /* Synchronize the calculations */
-            while (curNode != null) {
-                synchronized (curNode) {
-
-                    /* Add the rewards. */
-                    curNode.playOuts.incrementAndGet();
-                    double wins = winPoints.getDouble(i);
-                    if ((nodes.size() != 1) && (!nodes.get(i).state.engineColor)) {
-                        wins = (1 - wins);
-                    }
-                    if (curNode.state.turnColor != curNode.state.engineColor) {
-                        curNode.wins.addAndGet(wins);
-                    } else {
-                        curNode.wins.addAndGet(1 - wins);
-                    } // if/else
-
-                } // synchronized(node)
-                curNode.virtLoss.set(0);
-                curNode = curNode.lastMove;
-            } // while
-        }
-    } // backPropogate(MCTCNNNode, double, MCTCNNNode)
+    private double knownPoints(int node) {
+        double winChance = arena.value(node) / arena.visits(node);
+        return (arena.turnColor(node) != arena.engineColor()) ? winChance : 1 - winChance;
+    } // knownPoints(int)
+
+    /**
+     * Increments the total wins of every node on the search's path by the points
+     * based on reward.
+     * Increments total playouts by 1 for each regardless.
+     * 
+     * @param path      The nodes the search went through (ending with the
+     *                  terminating node)
+     * @param winPoints The number of points to be given (for the engine).
+     */
+    private void backPropagate(SearchPath path, double winPoints) {
+        /* The statistics are atomic, so no node is locked on the way up */
+        for (int i = path.length() - 1; i >= 0; i--) {
+            int curNode = path.get(i);
+            /* Add the rewards. */
+            arena.addVisit(curNode);
+            if (arena.turnColor(curNode) != arena.engineColor()) {
+                arena.addValue(curNode, winPoints);
+            } else {
+                arena.addValue(curNode, 1 - winPoints);
+            } // if/else
+        } // for
+    } // backPropogate(SearchPath, double)
 
     /**
      * Prints the computers most likely scenario.
      * 
-     * @param pen  The printwriter object to print with
      * @param root The root of the tree
      * @throws Exception if the printWriter object fails
      */
-    private static void printLikelyScenario(MCTNode root) throws Exception {
-        MCTNode node = root;
-        while (node != null) {
-            node.state.printBoard();
+    private void printLikelyScenario(int root) throws Exception {
+        int node = root;
+        SearchPath line = new SearchPath();
+        while (node != NodeArena.NONE) {
+            line.add(node);
+            if (line.endsInRepetition(arena)) {
+                break;
+            } // if
+            arena.state(node).printBoard();
             System.out.printf(
                     "Board was played %d times with a winrate of %.2f%% \n",
-                    node.playOuts.get(), (node.wins.get() / node.playOuts.get()) * 100);
-            if (node.nextMoves.isEmpty()) {
-                node = null;
-            } else {
-                node = Collections.max(node.nextMoves, Comparator.comparingInt(n -> n.playOuts.get()));
-            }
+                    arena.visits(node), (arena.value(node) / arena.visits(node)) * 100);
+            node = bestChild(node, arena::visits);
         } // while
-    } // printLikelyScenario(PrintWriter, MCTCNNNode)
+    } // printLikelyScenario(int)
 
-    private static String getMoveSequence(MCTNode node) throws Exception {
-        MCTNode curNode = node;
+    private String getMoveSequence(int node) throws Exception {
+        int curNode = node;
+        SearchPath line = new SearchPath();
         StringBuilder str = new StringBuilder();
         str.append("[");
         boolean addLetter = true;
         int numFullMoves = 1;
-        while (curNode != null) {
+        while (curNode != NodeArena.NONE) {
+            line.add(curNode);
+            if (line.endsInRepetition(arena)) {
+                break;
+            }
             if (addLetter) {
                 if (numFullMoves != 1) {
                     str.append(" ");
@@ -316,12 +596,8 @@ public class MCTCNN {
             }
             addLetter = !addLetter;
             str.append(" ");
-            str.append(UIUtils.moveToUCI(curNode.move));
-            if (curNode.nextMoves.isEmpty()) {
-                curNode = null;
-            } else {
-                curNode = Collections.max(curNode.nextMoves, Comparator.comparingDouble(n -> n.wins.get()));
-            }
+            str.append(UIUtils.moveToUCI(arena.move(curNode)));
+            curNode = bestChild(curNode, arena::value);
         }
         str.append("]");
         return str.toString();
@@ -330,15 +606,15 @@ public class MCTCNN {
     /**
      * Print the move choices ranked from worst to best stemming from the root.
      */
-    private static void printMoveChoices(MCTNode root) throws Exception {
-        int size = root.nextMoves.size();
-        for (int i = 0; i < size; i++) {
-            MCTNode worst = Collections.min(root.nextMoves, Comparator.comparingInt(n -> n.playOuts.get()));
+    private void printMoveChoices(int root) throws Exception {
+        int first = arena.firstChild(root);
+        int[] choices = IntStream.range(first, first + arena.childCount(root)).boxed()
+                .sorted(Comparator.comparingInt(arena::visits)).mapToInt(Integer::intValue).toArray();
+        for (int worst : choices) {
             System.out.printf(
                     "Move: %s | Win rate: %.2f | Playouts: %d | %s\n",
-                    UIUtils.moveToUCI(worst.move), ((worst.wins.get() / worst.playOuts.get()) * 100),
-                    worst.playOuts.get(), getMoveSequence(worst));
-            root.nextMoves.remove(worst);
+                    UIUtils.moveToUCI(arena.move(worst)), ((arena.value(worst) / arena.visits(worst)) * 100),
+                    arena.visits(worst), getMoveSequence(worst));
         } // for
     } // printMoveChoices
 } // MCTCNN
@@ -0,0 +1,98 @@
+package utils.MCTutils;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+
+import utils.CNNutils.TARSCNN;
+
+/**
+ * The networks the trees evaluate positions with. A network evaluates for one
+ * thread at a time, so each is handed out as one copy per search thread. They
+ * are loaded the first time a tree asks for them (not when a class is loaded),
+ * shared by every tree after that, and a model that can't be loaded is
+ * reported with its file.
+ *
+ * @author Sebastian Manza
+ */
+public class Networks {
+    /**
+     * The value and policy network to search with in place of TARS
+     * (-DpolicyModel=<file>, see TARSCNN.buildPolicyGraphConfiguration), or null.
+     */
+    public static final String POLICY_MODEL = System.getProperty("policyModel");
+
+    /**
+     * Whether the trees search with PUCT: a selected node is expanded and only it
+     * is evaluated, by the policy network, which also gives its children their
+     * priors. Otherwise every new child is evaluated by TARS and selection uses
+     * UCB1.
+     */
+    public static final boolean PUCT = POLICY_MODEL != null;
+
+    /** The PUCT exploration constant (-Dcpuct=c), weighing a child's prior against its value */
+    public static final double PUCT_PARAM = Double.parseDouble(System.getProperty("cpuct", "1.5"));
+
+    /** The copies of each TARS model loaded so far, by file. */
+    private static final Map<String, MultiLayerNetwork[]> VALUE_NETWORKS = new HashMap<>();
+
+    /** The copies of the policy network, once loaded. */
+    private static ComputationGraph[] policyNetworks;
+
+    /**
+     * Get a copy of a TARS model for each search thread, loading it if no tree
+     * has yet.
+     *
+     * @param path    the model's file
+     * @param threads the number of search threads
+     * @return the copies (the first is the model loaded)
+     * @throws IllegalArgumentException if the model can't be loaded
+     */
+    public static synchronized MultiLayerNetwork[] valueNetworks(String path, int threads) {
+        MultiLayerNetwork[] networks = VALUE_NETWORKS.get(path);
+        if (networks == null || networks.length < threads) {
+            MultiLayerNetwork tars = TARSCNN.loadModel(modelFile(path, "TARS model"));
+            networks = IntStream.range(0, threads).mapToObj(i -> (i == 0) ? tars : tars.clone())
+                    .toArray(MultiLayerNetwork[]::new);
+            VALUE_NETWORKS.put(path, networks);
+        } // if
+        return networks;
+    } // valueNetworks(String, int)
+
+    /**
+     * Get a copy of the policy network (-DpolicyModel) for each search thread,
+     * loading it if no tree has yet.
+     *
+     * @param threads the number of search threads
+     * @return the copies (the first is the model loaded)
+     * @throws IllegalArgumentException if the model can't be loaded
+     */
+    public static synchronized ComputationGraph[] policyNetworks(int threads) {
+        if (policyNetworks == null || policyNetworks.length < threads) {
+            ComputationGraph policy = TARSCNN.loadModelC(modelFile(POLICY_MODEL, "-DpolicyModel"));
+            policyNetworks = IntStream.range(0, threads).mapToObj(i -> (i == 0) ? policy : policy.clone())
+                    .toArray(ComputationGraph[]::new);
+        } // if
+        return policyNetworks;
+    } // policyNetworks(int)
+
+    /**
+     * Check that a model's file is there before loading it.
+     *
+     * @param path the file
+     * @param what what the model is, for the error
+     * @return the file
+     * @throws IllegalArgumentException if there is no such file
+     */
+    private static File modelFile(String path, String what) {
+        File file = new File(path);
+        if (!file.isFile()) {
+            throw new IllegalArgumentException(what + ": no model file at " + file.getAbsolutePath());
+        } // if
+        return file;
+    } // modelFile(String, String)
+} // Networks
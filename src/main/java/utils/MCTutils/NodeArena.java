@@ -0,0 +1,1092 @@
+package utils.MCTutils;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.IntToDoubleFunction;
+
+import utils.MoveGeneration.GameState;
+import utils.MoveGeneration.MoveGen;
+import utils.MoveGeneration.MoveList;
+import utils.MoveGeneration.PackedPosition;
+
+/**
+ * The store the Monte Carlo trees keep their nodes in. A node is an index, and
+ * its fields (statistics, move, parent, children) are entries in preallocated
+ * primitive arrays, so a tree of millions of nodes is a few dozen arrays rather
+ * than millions of objects. A node's children are a contiguous range of
+ * indices, allocated together when it is expanded, which keeps siblings next to
+ * each other in memory while selecting among them.
+ *
+ * Expanding a node only records each child's move. A child's board is built from
+ * its parent's the first time it is needed (see state), and boards of nodes that
+ * went cold can be dropped again (see dropColdStates), since they can always be
+ * rebuilt from the nearest ancestor that still has one.
+ *
+ * The arena never grows. Once it is full, prune collapses the subtrees under
+ * the least visited nodes (each keeps its own statistics, which already add up
+ * its subtree's) and compacts the rest, so a search can go on for as long as it
+ * is given in the same memory.
+ *
+ * With transpositions on (-Dtranspositions=true), the tree becomes a graph: a
+ * child whose position is already in the arena (by Zobrist key) is linked to
+ * the node holding it, and reads and writes its statistics and children there.
+ * The child keeps its own parent and move, so a search walking down through it
+ * must remember its path (see SearchPath) to back up along it. Drawn positions
+ * are never linked, since whether a position is drawn depends on how it was
+ * reached.
+ *
+ * Fields shared between search threads are read and written through VarHandles:
+ * statistics are updated atomically, and a node's children are published by a
+ * release write of their count, after every child has been filled in.
+ *
+ * @author Sebastian Manza
+ */
+public class NodeArena {
+    /** The index used for "no node". */
+    public static final int NONE = -1;
+
+    /** The expansion states: no children yet, children being built, published */
+    public static final int UNEXPANDED = 0;
+    public static final int EXPANDING = 1;
+    public static final int EXPANDED = 2;
+
+    /**
+     * About the bytes a node takes with its board: its entries in the arrays, plus
+     * the PackedPosition (a little more with best child statistics, priors or
+     * transpositions).
+     */
+    public static final int NODE_BYTES = 96;
+
+    /**
+     * The number of nodes a tree holds unless set otherwise: -DtreeNodes=n, or as
+     * many as fit in -DtreeMemory=<megabytes>, else as many as fit in an eighth of
+     * the heap (at least 64K, at most 2M).
+     */
+    public static final int DEFAULT_CAPACITY = defaultCapacity();
+
+    /**
+     * The share of a full arena's nodes kept when it is pruned, in percent
+     * (-DprunePercent=n, from 10 to 90).
+     */
+    public static final int PRUNE_PERCENT = Math.max(10, Math.min(90, Integer.getInteger("prunePercent", 50)));
+
+    /**
+     * The visits below which a node's board is dropped when a move is played
+     * (-DcoldVisits=n, 0 to keep every board).
+     */
+    public static final int COLD_VISITS = Integer.getInteger("coldVisits", 0);
+
+    /** Whether arenas link transpositions unless told otherwise (-Dtranspositions=true). */
+    public static final boolean TRANSPOSITIONS = Boolean.getBoolean("transpositions");
+
+    /**
+     * Node flags: its board was built (so its key and draw flag are known), the
+     * game is drawn there, white moves there.
+     */
+    private static final byte MATERIALIZED = 1;
+    private static final byte DRAW = 2;
+    private static final byte WHITE_TO_MOVE = 4;
+
+    /** Atomic access to the int and long arrays. */
+    private static final VarHandle INTS = MethodHandles.arrayElementVarHandle(int[].class);
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle BYTES = MethodHandles.arrayElementVarHandle(byte[].class);
+
+    /** The most nodes the arena holds. */
+    private final int capacity;
+
+    /** The number of nodes handed out (the next free index). */
+    private final AtomicInteger size;
+
+    /** The value of each node (win points or win probability), as double bits. */
+    private final long[] values;
+
+    /** The number of times each node was evaluated. */
+    private final int[] visits;
+
+    /** The number of searches currently passing through each node. */
+    private final int[] virtualLoss;
+
+    /** The parent of each node (NONE for the root). */
+    private final int[] parents;
+
+    /** The index of each node's first child. */
+    private final int[] firstChildren;
+
+    /** The number of children of each node, 0 until they are published. */
+    private final int[] childCounts;
+
+    /** The expansion state of each node. */
+    private final int[] expansion;
+
+    /** The move that led to each node. */
+    private final short[] moves;
+
+    /** The flags of each node (MATERIALIZED, DRAW, WHITE_TO_MOVE). */
+    private final byte[] flags;
+
+    /** The Zobrist key of each node, once its board has been built. */
+    private final long[] keys;
+
+    /** The board of each node, null until it is first needed (or once dropped). */
+    private final PackedPosition[] positions;
+
+    /**
+     * The most visits of any of each node's children (high 32 bits) and the value
+     * of that child (low 32 bits, as a float), packed so both change together.
+     * Only kept for trees that ask for them, see MCTMin.
+     */
+    private final long[] bestChildren;
+
+    /**
+     * The prior of each node: the chance a policy network gave its move at its
+     * parent, out of its siblings. It belongs to the move, so it is the node's own
+     * even with transpositions. Only kept for trees that ask for them, see
+     * MCTMin.
+     */
+    private final float[] priors;
+
+    /**
+     * The node holding each node's statistics and children: itself, or the node
+     * first reached with its position (only kept with transpositions on).
+     */
+    private final int[] links;
+
+    /**
+     * The positions in the arena with transpositions on: an open addressing table
+     * of node index + 1 (0 when empty), by the nodes' keys. It is at least twice
+     * the capacity, so it never fills.
+     */
+    private final int[] table;
+
+    /** The current root. */
+    private int root;
+
+    /**
+     * Whether pruning can make room (false once a pruning freed too little to
+     * expand a node, until the root changes).
+     */
+    private boolean prunable;
+
+    /** The engine's color (the same in every node). */
+    private boolean engineColor;
+
+    /**
+     * The keys of the game's positions before the root, so repetitions of them are
+     * found inside the tree.
+     */
+    private long[] rootHistory;
+
+    /**
+     * Work out the default capacity from -DtreeNodes or -DtreeMemory, else from
+     * the heap's size (an engine holds more than one tree).
+     *
+     * @return the number of nodes
+     */
+    private static int defaultCapacity() {
+        Integer nodes = Integer.getInteger("treeNodes");
+        Integer megabytes = Integer.getInteger("treeMemory");
+        if (nodes != null) {
+            return nodes;
+        } else if (megabytes != null) {
+            return (int) Math.min(Integer.MAX_VALUE - 8, megabytes * (1L << 20) / NODE_BYTES);
+        } // if/else
+        long fit = Runtime.getRuntime().maxMemory() / 8 / NODE_BYTES;
+        return (int) Math.max(1 << 16, Math.min(1 << 21, fit));
+    } // defaultCapacity()
+
+    /**
+     * Create an empty arena, linking transpositions if -Dtranspositions is set.
+     *
+     * @param capacity       the most nodes it holds
+     * @param trackBestChild whether to keep each node's best child statistics
+     */
+    public NodeArena(int capacity, boolean trackBestChild) {
+        this(capacity, trackBestChild, TRANSPOSITIONS);
+    } // NodeArena(int, boolean)
+
+    /**
+     * Create an empty arena.
+     *
+     * @param capacity       the most nodes it holds
+     * @param trackBestChild whether to keep each node's best child statistics
+     * @param transpositions whether to link nodes with the same position
+     */
+    public NodeArena(int capacity, boolean trackBestChild, boolean transpositions) {
+        this(capacity, trackBestChild, transpositions, false);
+    } // NodeArena(int, boolean, boolean)
+
+    /**
+     * Create an empty arena.
+     *
+     * @param capacity       the most nodes it holds
+     * @param trackBestChild whether to keep each node's best child statistics
+     * @param transpositions whether to link nodes with the same position
+     * @param trackPriors    whether to keep each node's prior (see expand)
+     */
+    public NodeArena(int capacity, boolean trackBestChild, boolean transpositions, boolean trackPriors) {
+        this.capacity = capacity;
+        this.size = new AtomicInteger(0);
+        this.values = new long[capacity];
+        this.visits = new int[capacity];
+        this.virtualLoss = new int[capacity];
+        this.parents = new int[capacity];
+        this.firstChildren = new int[capacity];
+        this.childCounts = new int[capacity];
+        this.expansion = new int[capacity];
+        this.moves = new short[capacity];
+        this.flags = new byte[capacity];
+        this.keys = new long[capacity];
+        this.positions = new PackedPosition[capacity];
+        this.bestChildren = (trackBestChild) ? new long[capacity] : null;
+        this.priors = (trackPriors) ? new float[capacity] : null;
+        this.links = (transpositions) ? new int[capacity] : null;
+        this.table = (transpositions) ? new int[Integer.highestOneBit(Math.max(capacity - 1, 1)) << 2] : null;
+        this.root = NONE;
+        this.rootHistory = new long[0];
+    } // NodeArena(int, boolean, boolean, boolean)
+
+    /**
+     * Empty the arena and make a position its root.
+     *
+     * @param state the position (not changed or kept)
+     * @return the root
+     */
+    public int newRoot(GameState state) {
+        Arrays.fill(this.positions, 0, size(), null);
+        this.size.set(0);
+        this.root = allocate(1);
+        this.prunable = true;
+        initNode(this.root, NONE, (short) 0, state.turnColor);
+        this.rootHistory = state.recentHistory();
+        this.engineColor = state.engineColor;
+        materialize(this.root, state, false);
+        if (this.table != null) {
+            Arrays.fill(this.table, 0);
+            lookup(this.root);
+        } // if
+        return this.root;
+    } // newRoot(GameState)
+
+    /**
+     * Get the root.
+     *
+     * @return the root's index
+     */
+    public int root() {
+        return this.root;
+    } // root()
+
+    /**
+     * Get the number of nodes in use.
+     *
+     * @return the number of nodes
+     */
+    public int size() {
+        return Math.min(this.size.get(), this.capacity);
+    } // size()
+
+    /**
+     * Check if the arena is too full to expand another node.
+     *
+     * @return true if a node with the most legal moves possible wouldn't fit
+     */
+    public boolean isFull() {
+        return this.size.get() > this.capacity - MoveList.MAX_MOVES;
+    } // isFull()
+
+    /**
+     * Check if the arena is full and pruning it would make room.
+     *
+     * @return true if the searches should stop for prune, else false
+     */
+    public boolean needsPruning() {
+        return this.prunable && isFull();
+    } // needsPruning()
+
+    /**
+     * Make room in a full arena by collapsing the subtrees under its least visited
+     * nodes. A node's children are kept only if it and every node above it (below
+     * the root) were visited at least some number of times, chosen so that about
+     * PRUNE_PERCENT of the arena is kept; the root's children are always kept. A
+     * collapsed node keeps its statistics (which already count its subtree's
+     * visits) and can be expanded again. Only call this while no thread is
+     * searching the arena.
+     *
+     * @return the number of nodes freed
+     */
+    public int prune() {
+        int target = (int) ((long) this.capacity * PRUNE_PERCENT / 100);
+        int used = size();
+
+        /*
+         * The fewest visits of any node above each node (below the root): a node is
+         * kept if that's enough. Nodes nothing was published for get -1.
+         */
+        int[] pathVisits = new int[used];
+        int[] reached = new int[used];
+        int count = 0;
+        Arrays.fill(pathVisits, -1);
+        for (int node = this.root; node < used; node++) {
+            int parent = this.parents[node];
+            if (node == this.root) {
+                pathVisits[node] = Integer.MAX_VALUE;
+            } else if (parent != NONE && pathVisits[parent] >= 0 && isPublished(parent, node)) {
+                pathVisits[node] = (parent == this.root) ? Integer.MAX_VALUE
+                        : Math.min(pathVisits[parent], this.visits[parent]);
+            } // if/else
+            if (pathVisits[node] >= 0) {
+                reached[count++] = pathVisits[node];
+            } // if
+        } // for
+
+        int minVisits = 0;
+        if (count > target) {
+            Arrays.sort(reached, 0, count);
+            minVisits = reached[count - target];
+            /* Ties with the cut could keep too many, so leave them out */
+            if (reached[count - target - 1] == minVisits && minVisits < Integer.MAX_VALUE) {
+                minVisits++;
+            } // if
+        } // if
+        compact(this.root, minVisits);
+        int freed = used - size();
+        this.prunable = freed >= MoveList.MAX_MOVES;
+        return freed;
+    } // prune()
+
+    /**
+     * Check if a node is one of its parent's published children.
+     *
+     * @param parent the parent
+     * @param node   the node
+     * @return true if it is, else false (its block was left half built)
+     */
+    private boolean isPublished(int parent, int node) {
+        return node >= this.firstChildren[parent] && node < this.firstChildren[parent] + this.childCounts[parent];
+    } // isPublished(int, int)
+
+    /**
+     * Check if the arena links transpositions.
+     *
+     * @return true if it does, else false
+     */
+    public boolean hasTranspositions() {
+        return this.links != null;
+    } // hasTranspositions()
+
+    /**
+     * Get the node holding a node's statistics and children: the node itself,
+     * unless it is linked to a transposition.
+     *
+     * @param node the node
+     * @return the node holding its position
+     */
+    public int link(int node) {
+        return (this.links == null) ? node : this.links[node];
+    } // link(int)
+
+    /**
+     * Find the node holding a node's position (by its key) in the table, adding
+     * the node if it is the first with it.
+     *
+     * @param node the node (with its key)
+     * @return the node holding the position
+     */
+    private int lookup(int node) {
+        long key = this.keys[node];
+        int mask = this.table.length - 1;
+        int slot = (int) (key ^ (key >>> 32)) & mask;
+        while (true) {
+            int entry = (int) INTS.getAcquire(this.table, slot);
+            if (entry == 0 && INTS.compareAndSet(this.table, slot, 0, node + 1)) {
+                return node;
+            } else if (entry == 0) {
+                /* Another thread took the slot first; look at what it put there */
+                continue;
+            } else if (this.keys[entry - 1] == key) {
+                return entry - 1;
+            } // if/else
+            slot = (slot + 1) & mask;
+        } // while
+    } // lookup(int)
+
+    /**
+     * Find a new child's key and draw flag by playing its move on its parent's
+     * board (without keeping the child's board), and link it to the node that
+     * already holds its position, if there is one.
+     *
+     * @param child the child
+     * @param state its parent's board (played and taken back)
+     */
+    private void linkChild(int child, GameState state) {
+        state.makeMove(this.moves[child]);
+        boolean isDraw = state.isDraw();
+        this.keys[child] = state.zobristKey;
+        state.unmakeMove();
+        this.flags[child] |= (byte) (MATERIALIZED | ((isDraw) ? DRAW : 0));
+        this.links[child] = (isDraw) ? child : lookup(child);
+    } // linkChild(int, GameState)
+
+    /**
+     * Hand out a block of consecutive nodes.
+     *
+     * @param count the number of nodes
+     * @return the first of them, or NONE if they don't fit
+     */
+    private int allocate(int count) {
+        int first = this.size.getAndAdd(count);
+        if (first + count > this.capacity) {
+            return NONE;
+        } // if
+        return first;
+    } // allocate(int)
+
+    /**
+     * Fill in a node that was just allocated (without its board).
+     *
+     * @param node        the node
+     * @param parent      its parent
+     * @param move        the move that led to it
+     * @param whiteToMove whether white moves there
+     */
+    private void initNode(int node, int parent, short move, boolean whiteToMove) {
+        this.values[node] = 0L;
+        this.visits[node] = 0;
+        this.virtualLoss[node] = 0;
+        this.parents[node] = parent;
+        this.firstChildren[node] = NONE;
+        this.childCounts[node] = 0;
+        this.expansion[node] = UNEXPANDED;
+        this.moves[node] = move;
+        this.flags[node] = (whiteToMove) ? WHITE_TO_MOVE : 0;
+        this.keys[node] = 0L;
+        this.positions[node] = null;
+        if (this.bestChildren != null) {
+            this.bestChildren[node] = 0L;
+        } // if
+        if (this.priors != null) {
+            this.priors[node] = 0f;
+        } // if
+        if (this.links != null) {
+            this.links[node] = node;
+        } // if
+    } // initNode(int, int, short, boolean)
+
+    /**
+     * Keep a node's board. Its key and draw flag are published after it, so a
+     * thread that sees the node as materialized sees the board too. Two threads
+     * may build the same board at once; they store the same thing.
+     *
+     * @param node   the node
+     * @param state  its board (not changed or kept)
+     * @param isDraw whether the game is drawn there
+     */
+    private void materialize(int node, GameState state, boolean isDraw) {
+        this.keys[node] = state.zobristKey;
+        this.positions[node] = new PackedPosition(state);
+        BYTES.getAndBitwiseOrRelease(this.flags, node, (byte) (MATERIALIZED | ((isDraw) ? DRAW : 0)));
+    } // materialize(int, GameState, boolean)
+
+    /**
+     * Check if a node's board has been built (its key and draw flag are known,
+     * even if the board was dropped since).
+     *
+     * @param node the node
+     * @return true if it has, else false
+     */
+    private boolean isMaterialized(int node) {
+        return ((byte) BYTES.getAcquire(this.flags, node) & MATERIALIZED) != 0;
+    } // isMaterialized(int)
+
+    /**
+     * Give a node a child for each legal move, unless another thread already has
+     * (or is), or the arena is full. A finished game is expanded with no children.
+     * Threads don't wait for each other: a node being expanded by another thread
+     * has no children yet. A linked node expands the node it is linked to.
+     *
+     * @param node the node
+     * @return true if this call expanded the node, else false
+     */
+    public boolean expand(int node) {
+        return expand(node, null);
+    } // expand(int)
+
+    /**
+     * Expand a node (see expand(int)), giving each child a prior from a policy
+     * before they are published. The policy's chances for the legal moves are
+     * scaled to add up to 1 (or spread evenly if they add up to nothing).
+     *
+     * @param node   the node
+     * @param policy the chance of each move (as an int), or null for no priors
+     * @return true if this call expanded the node, else false
+     */
+    public boolean expand(int node, IntToDoubleFunction policy) {
+        node = link(node);
+        if (isFull() || (int) INTS.getAcquire(this.expansion, node) != UNEXPANDED
+                || !INTS.compareAndSet(this.expansion, node, UNEXPANDED, EXPANDING)) {
+            return false;
+        } // if
+
+        /* A drawn game has no children */
+        GameState state = state(node);
+        MoveList nextMoves = MoveList.forPly(0);
+        int numMov = (isDraw(node)) ? 0 : state.legalMoves(nextMoves);
+        int first = allocate(numMov);
+        if (first == NONE) {
+            /* Another thread filled the arena first; leave the node for later */
+            INTS.setRelease(this.expansion, node, UNEXPANDED);
+            return false;
+        } // if
+        /*
+         * Children only get their move; their boards are built when first needed (but
+         * their keys are found now if they may be transpositions)
+         */
+        for (int i = 0; i < numMov; i++) {
+            initNode(first + i, node, nextMoves.get(i), !state.turnColor);
+            if (this.links != null) {
+                linkChild(first + i, state);
+            } // if
+        } // for
+        if (policy != null && this.priors != null) {
+            setPriors(first, numMov, policy);
+        } // if
+
+        /* Publish: the children are only read after their count is seen */
+        this.firstChildren[node] = first;
+        INTS.setRelease(this.childCounts, node, numMov);
+        INTS.setRelease(this.expansion, node, EXPANDED);
+        return true;
+    } // expand(int, IntToDoubleFunction)
+
+    /**
+     * Give a block of new children their priors from a policy, scaled to add up
+     * to 1.
+     *
+     * @param first  the first child
+     * @param count  the number of children
+     * @param policy the chance of each move (as an int)
+     */
+    private void setPriors(int first, int count, IntToDoubleFunction policy) {
+        double total = 0;
+        for (int child = first; child < first + count; child++) {
+            double chance = Math.max(0, policy.applyAsDouble(this.moves[child]));
+            this.priors[child] = (float) chance;
+            total += chance;
+        } // for
+        for (int child = first; child < first + count; child++) {
+            this.priors[child] = (total > 0) ? (float) (this.priors[child] / total) : 1f / count;
+        } // for
+    } // setPriors(int, int, IntToDoubleFunction)
+
+    /**
+     * Get the prior of a node's move (0 if priors aren't kept, or its parent was
+     * expanded without a policy).
+     *
+     * @param node the node
+     * @return its prior
+     */
+    public double prior(int node) {
+        return (this.priors != null) ? this.priors[node] : 0;
+    } // prior(int)
+
+    /**
+     * Find a node's move if it is the only legal one, without expanding the node.
+     *
+     * @param node the node
+     * @return the only legal move, or 0 if there are none or more than one
+     */
+    public short onlyMove(int node) {
+        if (isExpanded(node)) {
+            return (childCount(node) == 1) ? move(firstChild(node)) : 0;
+        } // if
+        MoveList nextMoves = MoveList.forPly(0);
+        return (!isDraw(node) && state(node).legalMoves(nextMoves) == 1) ? nextMoves.get(0) : 0;
+    } // onlyMove(int)
+
+    /**
+     * Check if a node's children have been published (a node with none then is a
+     * finished game).
+     *
+     * @param node the node
+     * @return true if it is expanded, else false
+     */
+    public boolean isExpanded(int node) {
+        return (int) INTS.getAcquire(this.expansion, link(node)) == EXPANDED;
+    } // isExpanded(int)
+
+    /**
+     * Get the number of published children of a node.
+     *
+     * @param node the node
+     * @return the number of children (0 if it isn't expanded)
+     */
+    public int childCount(int node) {
+        return (int) INTS.getAcquire(this.childCounts, link(node));
+    } // childCount(int)
+
+    /**
+     * Get the first child of a node. Its children are the childCount(node) indices
+     * from there; only read it after seeing a non-zero childCount.
+     *
+     * @param node the node
+     * @return the first child
+     */
+    public int firstChild(int node) {
+        return this.firstChildren[link(node)];
+    } // firstChild(int)
+
+    /**
+     * Get the parent of a node.
+     *
+     * @param node the node
+     * @return the parent, or NONE for the root
+     */
+    public int parent(int node) {
+        return this.parents[node];
+    } // parent(int)
+
+    /**
+     * Get the move that led to a node.
+     *
+     * @param node the node
+     * @return the move
+     */
+    public short move(int node) {
+        return this.moves[node];
+    } // move(int)
+
+    /**
+     * Check if the game is drawn at a node. The root never counts as drawn, so it
+     * always has a move to play.
+     *
+     * @param node the node
+     * @return true if it is a draw, else false
+     */
+    public boolean isDraw(int node) {
+        if (!isMaterialized(node)) {
+            state(node);
+        } // if
+        return (this.flags[node] & DRAW) != 0;
+    } // isDraw(int)
+
+    /**
+     * Get the color to move at a node.
+     *
+     * @param node the node
+     * @return true for white, false for black
+     */
+    public boolean turnColor(int node) {
+        return (this.flags[node] & WHITE_TO_MOVE) != 0;
+    } // turnColor(int)
+
+    /**
+     * Get the engine's color.
+     *
+     * @return true for white, false for black
+     */
+    public boolean engineColor() {
+        return this.engineColor;
+    } // engineColor()
+
+    /**
+     * Get the packed board of a node, building it if needed.
+     *
+     * @param node the node
+     * @return the board
+     */
+    public PackedPosition position(int node) {
+        PackedPosition position = this.positions[node];
+        if (position == null) {
+            state(node);
+            position = this.positions[node];
+        } // if
+        return position;
+    } // position(int)
+
+    /**
+     * Get a node's board as a GameState. Every call makes a new copy, so the
+     * caller can play moves on it. A node without a board gets it from the nearest
+     * ancestor that has one, by replaying the moves down from there; every board
+     * built on the way is kept.
+     *
+     * @param node the node
+     * @return the board
+     */
+    public GameState state(int node) {
+        if (this.positions[node] != null) {
+            return unpack(node);
+        } // if
+
+        /* Walk up to the nearest ancestor with a board (the root always has one) */
+        int[] path = new int[16];
+        int depth = 0;
+        int ancestor = node;
+        while (this.positions[ancestor] == null) {
+            if (depth == path.length) {
+                path = Arrays.copyOf(path, depth * 2);
+            } // if
+            path[depth++] = ancestor;
+            ancestor = this.parents[ancestor];
+        } // while
+
+        /* Replay the moves back down */
+        GameState state = unpack(ancestor);
+        while (depth > 0) {
+            int child = path[--depth];
+            state.makeMove(this.moves[child]);
+            materialize(child, state, state.isDraw());
+        } // while
+        return state;
+    } // state(int)
+
+    /**
+     * Unpack a node's board into a GameState. Its history (for finding
+     * repetitions) is rebuilt from the keys of the nodes above it, then the game
+     * before the root.
+     *
+     * @param node the node (with a board)
+     * @return the board
+     */
+    private GameState unpack(int node) {
+        GameState state = this.positions[node].unpack();
+        int needed = state.halfmoveClock;
+        long[] history = new long[needed];
+        int count = 0;
+        int ancestor = this.parents[node];
+        while (count < needed && ancestor != NONE) {
+            history[needed - 1 - count++] = this.keys[ancestor];
+            ancestor = this.parents[ancestor];
+        } // while
+        if (count < needed) {
+            int fromGame = Math.min(needed - count, this.rootHistory.length);
+            System.arraycopy(this.rootHistory, this.rootHistory.length - fromGame, history,
+                    needed - count - fromGame, fromGame);
+            count += fromGame;
+        } // if
+        state.setHistory(history, needed - count, needed);
+        return state;
+    } // unpack(int)
+
+    /**
+     * Drop the boards of nodes visited fewer than minVisits times (except the
+     * root's). Their keys and draw flags are kept, and their boards are rebuilt
+     * from an ancestor if they are needed again. Only call this between searches.
+     *
+     * @param minVisits the visits a node needs to keep its board
+     * @return the number of boards dropped
+     */
+    public int dropColdStates(int minVisits) {
+        int dropped = 0;
+        for (int node = 0; node < size(); node++) {
+            if (node != this.root && this.positions[node] != null && this.visits[node] < minVisits) {
+                this.positions[node] = null;
+                dropped++;
+            } // if
+        } // for
+        return dropped;
+    } // dropColdStates(int)
+
+    /**
+     * Get the value of a node.
+     *
+     * @param node the node
+     * @return its value
+     */
+    public double value(int node) {
+        return Double.longBitsToDouble((long) LONGS.getOpaque(this.values, link(node)));
+    } // value(int)
+
+    /**
+     * Set the value of a node.
+     *
+     * @param node  the node
+     * @param value its new value
+     */
+    public void setValue(int node, double value) {
+        LONGS.setOpaque(this.values, link(node), Double.doubleToRawLongBits(value));
+    } // setValue(int, double)
+
+    /**
+     * Add to the value of a node atomically.
+     *
+     * @param node  the node
+     * @param delta the amount to add
+     */
+    public void addValue(int node, double delta) {
+        updateValue(node, value -> value + delta);
+    } // addValue(int, double)
+
+    /**
+     * Replace the value of a node by a function of it, atomically (the function may
+     * be called more than once if another thread updates the node meanwhile).
+     *
+     * @param node   the node
+     * @param update the new value from the old one
+     * @return the new value
+     */
+    public double updateValue(int node, DoubleUnaryOperator update) {
+        node = link(node);
+        while (true) {
+            long bits = (long) LONGS.getVolatile(this.values, node);
+            double value = update.applyAsDouble(Double.longBitsToDouble(bits));
+            if (LONGS.compareAndSet(this.values, node, bits, Double.doubleToRawLongBits(value))) {
+                return value;
+            } // if
+        } // while
+    } // updateValue(int, DoubleUnaryOperator)
+
+    /**
+     * Get the number of times a node was evaluated.
+     *
+     * @param node the node
+     * @return its visits
+     */
+    public int visits(int node) {
+        return (int) INTS.getOpaque(this.visits, link(node));
+    } // visits(int)
+
+    /**
+     * Count a visit to a node.
+     *
+     * @param node the node
+     * @return its visits, including this one
+     */
+    public int addVisit(int node) {
+        return (int) INTS.getAndAdd(this.visits, link(node), 1) + 1;
+    } // addVisit(int)
+
+    /**
+     * Get the virtual loss of a node (the searches currently passing through it).
+     *
+     * @param node the node
+     * @return its virtual loss
+     */
+    public int virtualLoss(int node) {
+        return (int) INTS.getOpaque(this.virtualLoss, link(node));
+    } // virtualLoss(int)
+
+    /**
+     * Add to the virtual loss of a node.
+     *
+     * @param node  the node
+     * @param delta the amount to add (negative to take some away)
+     */
+    public void addVirtualLoss(int node, int delta) {
+        INTS.getAndAdd(this.virtualLoss, link(node), delta);
+    } // addVirtualLoss(int, int)
+
+    /**
+     * Set the virtual loss of a node.
+     *
+     * @param node the node
+     * @param loss the new virtual loss
+     */
+    public void setVirtualLoss(int node, int loss) {
+        INTS.setOpaque(this.virtualLoss, link(node), loss);
+    } // setVirtualLoss(int, int)
+
+    /**
+     * Get the most visits of any of a node's children (if tracked).
+     *
+     * @param node the node
+     * @return the most visits
+     */
+    public int bestChildVisits(int node) {
+        return (int) ((long) LONGS.getOpaque(this.bestChildren, link(node)) >>> 32);
+    } // bestChildVisits(int)
+
+    /**
+     * Get the value of a node's most visited child (if tracked).
+     *
+     * @param node the node
+     * @return the value
+     */
+    public double bestChildValue(int node) {
+        return Float.intBitsToFloat((int) (long) LONGS.getOpaque(this.bestChildren, link(node)));
+    } // bestChildValue(int)
+
+    /**
+     * Offer a child's statistics to its parent's best child record (if tracked).
+     * A child with more visits than the record takes its visits (keeping the
+     * recorded value), and one with as many visits and a value at least as high
+     * takes its value. Both are read and written together, so threads backing up
+     * through the same parent can't mix one child's visits with another's value.
+     *
+     * @param parent the parent
+     * @param visits the child's visits
+     * @param value  the child's value
+     * @return true if the child is at least as good as the record (the record now
+     *         counts it), false if it isn't
+     */
+    public boolean offerBestChild(int parent, int visits, double value) {
+        parent = link(parent);
+        while (true) {
+            long packed = (long) LONGS.getVolatile(this.bestChildren, parent);
+            int bestVisits = (int) (packed >>> 32);
+            int valueBits = (int) packed;
+            if (visits < bestVisits
+                    || (visits == bestVisits && (float) value < Float.intBitsToFloat(valueBits))) {
+                return false;
+            } else if (visits == bestVisits) {
+                valueBits = Float.floatToRawIntBits((float) value);
+            } // if/else
+            long offered = ((long) visits << 32) | (valueBits & 0xFFFFFFFFL);
+            if (offered == packed || LONGS.compareAndSet(this.bestChildren, parent, packed, offered)) {
+                return true;
+            } // if
+        } // while
+    } // offerBestChild(int, int, double)
+
+    /**
+     * Play a move at the root. If the root already has a child for it, that child
+     * becomes the new root and its subtree (with its statistics from earlier
+     * searches) is kept, compacted to the front of the arena. Otherwise the arena
+     * starts over from the new position. Only call this between searches.
+     *
+     * @param move the move played (see MoveGen.sameMove for how it is matched)
+     * @throws IllegalArgumentException if the move isn't legal at the root
+     */
+    public void advance(short move) {
+        int first = firstChild(this.root);
+        for (int child = first; child < first + childCount(this.root); child++) {
+            /*
+             * A drawn child has no children to keep, and can't be a root. A linked child's
+             * subtree is under the node it's linked to (with this game's history), which
+             * needs this child's board: as the root it has no ancestor to rebuild one from.
+             */
+            if (MoveGen.sameMove(this.moves[child], move) && !isDraw(child)) {
+                GameState state = state(child);
+                int newRoot = link(child);
+                materialize(newRoot, state, false);
+                keepSubtree(newRoot, state.recentHistory());
+                return;
+            } // if
+        } // for
+
+        GameState state = state(this.root);
+        MoveList nextMoves = MoveList.forPly(0);
+        int numMov = state.legalMoves(nextMoves);
+        for (int i = 0; i < numMov; i++) {
+            if (MoveGen.sameMove(nextMoves.get(i), move)) {
+                state.makeMove(nextMoves.get(i));
+                newRoot(state);
+                return;
+            } // if
+        } // for
+        throw new IllegalArgumentException("Illegal move at the root.");
+    } // advance(short)
+
+    /**
+     * Make a node the root and throw away everything outside its subtree. Cold
+     * boards are dropped afterwards if -DcoldVisits is set.
+     *
+     * @param newRoot the node to keep (with its subtree)
+     * @param history the keys of the game's positions before it
+     */
+    private void keepSubtree(int newRoot, long[] history) {
+        this.rootHistory = history;
+        this.prunable = true;
+        compact(newRoot, 0);
+        if (COLD_VISITS > 0) {
+            dropColdStates(COLD_VISITS);
+        } // if
+    } // keepSubtree(int, long[])
+
+    /**
+     * Make a node the root, keeping the part of its subtree under nodes visited at
+     * least minVisits times (the root's children are always kept), and throw away
+     * everything else. A kept node whose children aren't kept is collapsed into an
+     * unexpanded leaf. The nodes kept are slid down to the front of the arena in
+     * index order. Children are always allocated after their parent, and sibling
+     * blocks are kept whole, so every node moves to an index no later than its own
+     * and no unread node is overwritten.
+     *
+     * A kept node linked to a node that isn't kept holds its own position again
+     * (its statistics were all in the other node, so it starts over unvisited).
+     *
+     * @param newRoot   the node to keep (with its subtree)
+     * @param minVisits the visits a node needs to keep its children
+     */
+    private void compact(int newRoot, int minVisits) {
+        int used = size();
+        int[] newIndex = new int[used];
+        Arrays.fill(newIndex, NONE);
+
+        /*
+         * Number the nodes kept: the new root, then every published child of a kept
+         * node visited enough (a block left half-built by a full arena has no
+         * published parent)
+         */
+        int kept = 0;
+        for (int node = newRoot; node < used; node++) {
+            int parent = this.parents[node];
+            if (node == newRoot || (parent != NONE && newIndex[parent] != NONE && isPublished(parent, node)
+                    && (parent == newRoot || this.visits[parent] >= minVisits))) {
+                newIndex[node] = kept++;
+            } // if
+        } // for
+
+        /* Slide them down, pointing them at their parents' and children's new places */
+        for (int node = newRoot; node < used; node++) {
+            int to = newIndex[node];
+            if (to == NONE) {
+                continue;
+            } // if
+            int parent = (node == newRoot) ? NONE : newIndex[this.parents[node]];
+            int count = this.childCounts[node];
+            boolean collapsed = count > 0 && node != newRoot && this.visits[node] < minVisits;
+            this.values[to] = this.values[node];
+            this.visits[to] = this.visits[node];
+            this.virtualLoss[to] = 0;
+            this.parents[to] = parent;
+            this.firstChildren[to] = (count == 0 || collapsed) ? NONE : newIndex[this.firstChildren[node]];
+            this.childCounts[to] = (collapsed) ? 0 : count;
+            this.expansion[to] = (collapsed || (count == 0 && this.expansion[node] != EXPANDED)) ? UNEXPANDED
+                    : this.expansion[node];
+            this.moves[to] = this.moves[node];
+            this.flags[to] = this.flags[node];
+            this.keys[to] = this.keys[node];
+            this.positions[to] = this.positions[node];
+            if (this.bestChildren != null) {
+                this.bestChildren[to] = (collapsed) ? 0L : this.bestChildren[node];
+            } // if
+            if (this.priors != null) {
+                this.priors[to] = this.priors[node];
+            } // if
+            if (this.links != null) {
+                this.links[to] = (this.links[node] == node) ? to : newIndex[this.links[node]];
+            } // if
+        } // for
+        Arrays.fill(this.positions, kept, used, null);
+        this.size.set(kept);
+        this.root = 0;
+        if (this.table != null) {
+            relink(kept);
+        } // if
+    } // compact(int, int)
+
+    /**
+     * Rebuild the table after compacting: the nodes holding their own positions go
+     * back in first, then every node whose link was lost (NONE) is linked again,
+     * taking the position over if no kept node holds it.
+     *
+     * @param kept the number of nodes kept
+     */
+    private void relink(int kept) {
+        Arrays.fill(this.table, 0);
+        for (int node = 0; node < kept; node++) {
+            if (this.links[node] == node && isMaterialized(node) && (this.flags[node] & DRAW) == 0) {
+                lookup(node);
+            } // if
+        } // for
+        for (int node = 0; node < kept; node++) {
+            if (this.links[node] == NONE) {
+                this.links[node] = lookup(node);
+            } // if
+        } // for
+    } // relink(int)
+} // NodeArena
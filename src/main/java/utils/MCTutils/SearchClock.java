@@ -0,0 +1,121 @@
+package utils.MCTutils;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * The time a search has. It runs until its deadline, or stops early once the
+ * most visited root move can't be caught: the playouts left before the deadline
+ * are estimated from the rate the search has played at so far, and if the
+ * runner-up couldn't make up its gap even by getting every one of them, the
+ * rest of the time is left on the clock.
+ *
+ * The clock doesn't keep the time saved itself: the caller gets it back when
+ * the search returns early (Engine adds it to the next move's time).
+ *
+ * @author Sebastian Manza
+ */
+public class SearchClock {
+    /** How often a search checks whether it can stop early. */
+    public static final Duration CHECK_INTERVAL = Duration.ofMillis(50);
+
+    /** Whether searches stop early when they can (-DearlyStop=false to always use the full time). */
+    public static final boolean EARLY_STOP = !"false".equals(System.getProperty("earlyStop"));
+
+    /** When the search started. */
+    private final Instant start;
+
+    /** When the search has to stop. */
+    private final Instant deadline;
+
+    /** The root's playouts when the search started (from earlier searches). */
+    private final long startPlayouts;
+
+    /** Whether the search was stopped before its deadline. */
+    private volatile boolean stopped;
+
+    /**
+     * Start the clock for a search.
+     *
+     * @param duration      the time the search has
+     * @param startPlayouts the root's playouts so far
+     */
+    public SearchClock(Duration duration, long startPlayouts) {
+        this.start = Instant.now();
+        this.deadline = this.start.plus(duration);
+        this.startPlayouts = startPlayouts;
+        this.stopped = false;
+    } // SearchClock(Duration, long)
+
+    /**
+     * Get when the search started.
+     *
+     * @return the start
+     */
+    public Instant start() {
+        return this.start;
+    } // start()
+
+    /**
+     * Check if the search should keep going.
+     *
+     * @return true if it hasn't been stopped and the deadline hasn't passed
+     */
+    public boolean running() {
+        return !this.stopped && Instant.now().isBefore(this.deadline);
+    } // running()
+
+    /**
+     * Check if the search was stopped before its deadline.
+     *
+     * @return true if it was, else false
+     */
+    public boolean stoppedEarly() {
+        return this.stopped;
+    } // stoppedEarly()
+
+    /**
+     * Get the time left before the deadline (the time saved, once stopped early).
+     *
+     * @return the time left, or zero if the deadline has passed
+     */
+    public Duration remaining() {
+        Duration left = Duration.between(Instant.now(), this.deadline);
+        return (left.isNegative()) ? Duration.ZERO : left;
+    } // remaining()
+
+    /**
+     * Stop the search if the root's most visited move is decided: the visits it
+     * leads the runner-up by are more than the playouts expected before the
+     * deadline, at the rate of this search so far.
+     *
+     * @param visits   the visits of each root move
+     * @param playouts the root's playouts so far
+     * @return true if the search is stopped, else false
+     */
+    public boolean stopIfDecided(int[] visits, long playouts) {
+        if (!EARLY_STOP || this.stopped) {
+            return this.stopped;
+        } // if
+        int best = 0;
+        int second = 0;
+        for (int count : visits) {
+            if (count > best) {
+                second = best;
+                best = count;
+            } else if (count > second) {
+                second = count;
+            } // if/else
+        } // for
+        long elapsed = Duration.between(this.start, Instant.now()).toNanos();
+        long played = playouts - this.startPlayouts;
+        if (elapsed <= 0 || played <= 0) {
+            return false;
+        } // if
+        double expected = (double) played / elapsed * remaining().toNanos();
+        if (best - second > expected) {
+            this.stopped = true;
+        } // if
+        return this.stopped;
+    } // stopIfDecided(int[], long)
+} // SearchClock
@@ -0,0 +1,129 @@
+package utils.MCTutils;
+
+import java.util.Arrays;
+
+/**
+ * The nodes a search went through, from the root down. Without transpositions
+ * this is just a node's chain of parents, but with them (see NodeArena) a node
+ * can be reached through more than one parent, so a search backs up along the
+ * path it actually took. Each search thread keeps its own path.
+ *
+ * @author Sebastian Manza
+ */
+public class SearchPath {
+    /** The nodes, root first. */
+    private int[] nodes;
+
+    /** The number of nodes on the path. */
+    private int length;
+
+    /**
+     * The node this search expanded, whose new children hold a virtual loss until
+     * the search is done, or NodeArena.NONE.
+     */
+    private int expanded;
+
+    /**
+     * Create an empty path.
+     */
+    public SearchPath() {
+        this.nodes = new int[64];
+        this.length = 0;
+        this.expanded = NodeArena.NONE;
+    } // SearchPath()
+
+    /**
+     * Empty the path for a new search.
+     */
+    public void clear() {
+        this.length = 0;
+        this.expanded = NodeArena.NONE;
+    } // clear()
+
+    /**
+     * Record that this search expanded a node.
+     *
+     * @param node the node
+     */
+    public void setExpanded(int node) {
+        this.expanded = node;
+    } // setExpanded(int)
+
+    /**
+     * Get the node this search expanded.
+     *
+     * @return the node, or NodeArena.NONE if it expanded none
+     */
+    public int expanded() {
+        return this.expanded;
+    } // expanded()
+
+    /**
+     * Add a node to the end of the path.
+     *
+     * @param node the node
+     */
+    public void add(int node) {
+        if (this.length == this.nodes.length) {
+            this.nodes = Arrays.copyOf(this.nodes, this.length * 2);
+        } // if
+        this.nodes[this.length++] = node;
+    } // add(int)
+
+    /**
+     * Take the last node off the path.
+     */
+    public void removeLast() {
+        this.length--;
+    } // removeLast()
+
+    /**
+     * Get the number of nodes on the path.
+     *
+     * @return the length
+     */
+    public int length() {
+        return this.length;
+    } // length()
+
+    /**
+     * Get a node on the path.
+     *
+     * @param index its place on the path (0 for the root)
+     * @return the node
+     */
+    public int get(int index) {
+        return this.nodes[index];
+    } // get(int)
+
+    /**
+     * Get the last node on the path.
+     *
+     * @return the node
+     */
+    public int last() {
+        return this.nodes[this.length - 1];
+    } // last()
+
+    /**
+     * Check if the path came back to a position it already went through. A
+     * node's draw flag only knows the moves through its own parents, so through a
+     * transposition a line can repeat a position unnoticed (and would otherwise
+     * cycle). Without transpositions this never happens.
+     *
+     * @param arena the arena the path is in
+     * @return true if the last node's position is earlier on the path, else false
+     */
+    public boolean endsInRepetition(NodeArena arena) {
+        if (!arena.hasTranspositions() || this.length < 2) {
+            return false;
+        } // if
+        int position = arena.link(last());
+        for (int i = 0; i < this.length - 1; i++) {
+            if (arena.link(this.nodes[i]) == position) {
+                return true;
+            } // if
+        } // for
+        return false;
+    } // endsInRepetition(NodeArena)
+} // SearchPath
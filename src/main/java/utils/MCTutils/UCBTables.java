@@ -0,0 +1,51 @@
+package utils.MCTutils;
+
+/**
+ * Lookup tables for the exploration term of UCB1, C * sqrt(ln(N) / n), where N
+ * is a node's visits and n a child's. Selection splits it into C * sqrt(ln(N)),
+ * worked out once for the node, times 1 / sqrt(n) for each child, and both come
+ * from tables while the counts are small (as they are for most of a tree).
+ *
+ * @author Sebastian Manza
+ */
+public final class UCBTables {
+    /** The counts the tables cover (from 0 up to this, exclusive). */
+    public static final int SIZE = 1 << 12;
+
+    /** sqrt(ln(N)) for each count (0 for 0). */
+    private static final double[] SQRT_LOG = new double[SIZE];
+
+    /** 1 / sqrt(n) for each count (0 for 0). */
+    private static final double[] INV_SQRT = new double[SIZE];
+
+    static {
+        for (int n = 1; n < SIZE; n++) {
+            SQRT_LOG[n] = Math.sqrt(Math.log(n));
+            INV_SQRT[n] = 1 / Math.sqrt(n);
+        } // for
+    } // static
+
+    /** Only static lookups. */
+    private UCBTables() {
+    } // UCBTables()
+
+    /**
+     * Get sqrt(ln(N)), a node's part of its children's exploration terms.
+     *
+     * @param visits the node's visits, N
+     * @return sqrt(ln(N)), or 0 if N is 0
+     */
+    public static double sqrtLog(int visits) {
+        return (visits < SIZE) ? SQRT_LOG[Math.max(visits, 0)] : Math.sqrt(Math.log(visits));
+    } // sqrtLog(int)
+
+    /**
+     * Get 1 / sqrt(n), a child's part of its exploration term.
+     *
+     * @param visits the child's visits, n (more than 0)
+     * @return 1 / sqrt(n)
+     */
+    public static double invSqrt(int visits) {
+        return (visits < SIZE) ? INV_SQRT[visits] : 1 / Math.sqrt(visits);
+    } // invSqrt(int)
+} // UCBTables
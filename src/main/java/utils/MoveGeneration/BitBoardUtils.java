@@ -6,6 +6,12 @@ package utils.MoveGeneration;
  * @author Sebastian Manza
  */
 public class BitBoardUtils {
+    /** The squares of the a, b, g and h files, for masking off shifts that wrap. */
+    public static final long FILE_A = 0x0101010101010101L;
+    public static final long FILE_B = FILE_A << 1;
+    public static final long FILE_G = FILE_A << 6;
+    public static final long FILE_H = FILE_A << 7;
+
     /**
      * Set a bit at a square in a Bit Board.
      * 
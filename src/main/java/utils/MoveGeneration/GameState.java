@@ -10,7 +10,7 @@ import utils.UserInterface.UIUtils;
  * 
  * @author Sebastian Manza
  */
-public class GameState {
+public final class GameState {
     public static final int WKING = 0;
     public static final int BKING = 1;
     public static final int WQUEEN = 2;
@@ -27,9 +27,22 @@ public class GameState {
     public static final int BPIECES = 13;
     public static final int ALLPIECES = 14;
 
+    /** Generation stage: captures, en passant and promotions. */
+    public static final int CAPTURES = 1;
+    /** Generation stage: every other move (pushes, castling, quiet piece moves). */
+    public static final int QUIETS = 2;
+    /** Both generation stages. */
+    public static final int ALL_MOVES = CAPTURES | QUIETS;
+
     /** The bitboards */
     public long[] bitBoards = new long[15];
 
+    /**
+     * The piece on every square (a bitboard index, or NO_PIECE), kept in sync
+     * with the bitboards so a square can be looked up without scanning them.
+     */
+    public byte[] mailbox = new byte[64];
+
     /** The turn color */
     public boolean turnColor;
 
@@ -45,6 +58,48 @@ public class GameState {
     /* En Passang */
     public int enPassant = -1;
 
+    /** The Zobrist key of the position (see Zobrist), kept up to date by every move. */
+    public long zobristKey;
+
+    /** Plies since the last capture or pawn move (the game is drawn at 100). */
+    public int halfmoveClock;
+
+    /** The full move number (starting at 1, counting up after black moves). */
+    public int fullmoveNumber = 1;
+
+    /**
+     * Whether to check the incremental Zobrist key against a full recomputation
+     * after every move (run with -DverifyZobrist=true). Slow, for debugging only.
+     */
+    public static final boolean VERIFY_ZOBRIST = Boolean.getBoolean("verifyZobrist");
+
+    /** The piece index used when there is no piece (nothing captured). */
+    public static final int NO_PIECE = -1;
+
+    /** The starting size of the undo stack. */
+    private static final int UNDO_STACK_SIZE = 16;
+
+    /**
+     * The undo records of every move made with makeMove (most recent last). Each
+     * record packs the move, the captured piece, the castling rights, the en
+     * passant square and the halfmove clock. Only allocated once a move is made
+     * in place.
+     */
+    private long[] undoStack;
+
+    /**
+     * The Zobrist keys of the positions before this one (most recent last), for
+     * finding repetitions and for unmakeMove to restore the key. Copies only
+     * keep the ones since the last capture or pawn move.
+     */
+    private long[] history;
+
+    /** The number of keys in the history. */
+    private int historyCount;
+
+    /** The number of records on the undo stack. */
+    private int undoCount;
+
     /**
      * Build a new Game State.
      * 
@@ -59,6 +114,8 @@ public class GameState {
         this.whiteKingSide = true;
         this.blackQueenSide = true;
         this.whiteQueenSide = true;
+        Arrays.fill(this.mailbox, (byte) NO_PIECE);
+        this.zobristKey = Zobrist.hash(this);
     } // GameState(boolean, boolean)
 
     public GameState(GameState state) {
@@ -68,7 +125,16 @@ public class GameState {
         this.whiteKingSide = state.whiteKingSide;
         this.blackQueenSide = state.blackQueenSide;
         this.whiteQueenSide = state.whiteQueenSide;
+        this.enPassant = state.enPassant;
+        this.zobristKey = state.zobristKey;
+        this.halfmoveClock = state.halfmoveClock;
+        this.fullmoveNumber = state.fullmoveNumber;
+        if (state.historyCount > 0) {
+            setHistory(state.history, state.historyCount - Math.min(state.historyCount, state.halfmoveClock),
+                    state.historyCount);
+        } // if
         this.bitBoards = Arrays.copyOf(state.bitBoards, state.bitBoards.length);
+        this.mailbox = Arrays.copyOf(state.mailbox, state.mailbox.length);
     }
 
     /**
@@ -93,10 +159,15 @@ public class GameState {
         bitBoards[BQUEEN] = 0b0000100000000000000000000000000000000000000000000000000000000000L;
         bitBoards[WQUEEN] = 0b0000000000000000000000000000000000000000000000000000000000001000L;
 
-        bitBoards[WPIECES] = 0b00000000000000000000000000000000000000000000001111111111111111L;
-        bitBoards[BPIECES] = 0b11111111111111110000000000000000000000000000000000000000000000L;
+        bitBoards[WPIECES] = 0b0000000000000000000000000000000000000000000000001111111111111111L;
+        bitBoards[BPIECES] = 0b1111111111111111000000000000000000000000000000000000000000000000L;
 
         bitBoards[ALLPIECES] = 0b1111111111111111000000000000000000000000000000001111111111111111L;
+        fillMailbox();
+        this.halfmoveClock = 0;
+        this.fullmoveNumber = 1;
+        this.historyCount = 0;
+        this.zobristKey = Zobrist.hash(this);
     } // setBoardStartingPos()
 
     /**
@@ -105,7 +176,29 @@ public class GameState {
      * @return a list of pseudo-legal moves(represented as 16-bit integers)
      */
     public short[] nextMoves() {
-        short[] legalMoves = new short[256];
+        short[] legalMoves = new short[MoveList.MAX_MOVES];
+        return Arrays.copyOf(legalMoves, nextMoves(legalMoves));
+    } // nextMoves()
+
+    /**
+     * Generate all possible nextmoves into a reusable move list.
+     * 
+     * @param list the list to fill (its old moves are overwritten)
+     * @return the number of pseudo-legal moves
+     */
+    public int nextMoves(MoveList list) {
+        list.size = nextMoves(list.moves);
+        return list.size;
+    } // nextMoves(MoveList)
+
+    /**
+     * Generate all possible nextmoves into a buffer supplied by the caller.
+     * 
+     * @param legalMoves the buffer to write the moves to (at least
+     *                   MoveList.MAX_MOVES long)
+     * @return the number of pseudo-legal moves written
+     */
+    public int nextMoves(short[] legalMoves) {
         int numMov = 0;
 
         /* Set the appropriate bit boards */
@@ -117,11 +210,6 @@ public class GameState {
         long rooks = (this.turnColor) ? bitBoards[WROOKS] : bitBoards[BROOKS];
         long bishops = (this.turnColor) ? bitBoards[WBISHOPS] : bitBoards[BBISHOPS];
         long queens = (this.turnColor) ? bitBoards[WQUEEN] : bitBoards[BQUEEN];
-        long[] pawnQuiets = (this.turnColor) ? PawnMoves.pawnQuietsW : PawnMoves.pawnQuietsB;
-        long[] pawnCaptures = (this.turnColor) ? PawnMoves.pawnCapturesW : PawnMoves.pawnCapturesB;
-        long[] pawnStarts = (this.turnColor) ? PawnMoves.pawnStartsW : PawnMoves.pawnStartsB;
-        boolean[] startingRow = (this.turnColor) ? PawnMoves.WHITE_START_ROW : PawnMoves.BLACK_START_ROW;
-        boolean[] promotionRow = (this.turnColor) ? PawnMoves.WHITE_PROMOTION_ROW : PawnMoves.BLACK_PROMOTION_ROW;
         /* Check if there is anything on the knight board. */
         while (knights != 0) {
             int knightSquare = Long.numberOfTrailingZeros(knights);
@@ -147,11 +235,15 @@ public class GameState {
             /* Generate king moves. It can't eat our pieces. */
             long attackBoard = KingMoves.kingAttacks[kingSquare] & ~turnBoard;
 
-            if (MoveGen.canCastleKingSide(this)) {
+            /* Castling needs to know what the opponent attacks, if there are rights left */
+            boolean hasRights = (this.turnColor) ? this.whiteKingSide || this.whiteQueenSide
+                    : this.blackKingSide || this.blackQueenSide;
+            long attacked = (hasRights) ? attackedSquares(oppColor()) : 0L;
+            if (MoveGen.canCastleKingSide(this, attacked)) {
                 legalMoves[numMov++] = MoveGen.createMove(kingSquare, kingSquare + 2, KingMoves.CASTLE_FLAG, 0);
             }
 
-            if (MoveGen.canCastleQueenSide(this)) {
+            if (MoveGen.canCastleQueenSide(this, attacked)) {
                 legalMoves[numMov++] = MoveGen.createMove(kingSquare, kingSquare - 2, KingMoves.CASTLE_FLAG, 0);
             }
 
@@ -163,57 +255,19 @@ public class GameState {
 
         /*
          * Now pawns! They have some special characteristics(starting square,
-         * promotions, captures, en passant)
+         * promotions, captures, en passant). They are all moved at once by shifting
+         * the whole bitboard, then every target square is turned back into a move.
          */
-        while (pawns != 0) {
-            /* Find the pawns to look at. */
-            int pawnSquare = Long.numberOfTrailingZeros(pawns);
-            pawns &= (pawns - 1);
-
-            /*
-             * If the move is a quiet one (not a capture), there can't be any piece in front
-             * of it.
-             */
-            long attackBoard = pawnQuiets[pawnSquare] & ~bitBoards[ALLPIECES];
-
-            /*
-             * If there was nothing in the way before, and the pawn is on it's starting row,
-             * add the start possibility.
-             */
-            if (attackBoard != 0 && startingRow[pawnSquare]) {
-                attackBoard |= pawnStarts[pawnSquare] & ~bitBoards[ALLPIECES];
-            } // if
-
-            /*
-             * Join the 'quiet' moves with the captures. To capture, there must be a piece
-             * from the opponent in that slot.
-             */
-            long oppBoardEnPassant = (this.enPassant == -1) ? oppBoard
-                    : oppBoard | BitBoardUtils.setBit(this.enPassant);
-            attackBoard |= (pawnCaptures[pawnSquare] & oppBoardEnPassant);
-            while (attackBoard != 0) {
-                int endSquare = Long.numberOfTrailingZeros(attackBoard);
-
-                /* We have to keep in mind promotions for our last 8 squares. */
-                if (promotionRow[endSquare]) {
-                    /* There are four different pieces our pawn could promote to. */
-                    for (int promotions = 0; promotions < 4; promotions++) {
-                        short move = MoveGen.moves[pawnSquare][endSquare];
-                        /* Promotion type at bits 13-14 */
-                        move |= ((promotions & 0b11) << 12);
-                        move |= ((PawnMoves.PROMOTION_FLAG & 0b11) << 14);
-                        legalMoves[numMov++] = move;
-                    } // for
-                } else {
-                    legalMoves[numMov++] = MoveGen.moves[pawnSquare][endSquare];
-                    if (Math.abs(pawnSquare - endSquare) == 16) {
-                        legalMoves[numMov] |= ((PawnMoves.EN_PASSANT_FLAG & 0b11) << 12);
-                    } // if
-                }
-                /* Remove the last significant bit from the attack board. */
-                attackBoard &= (attackBoard - 1);
-            } // while
-        } // while
+        long empty = ~bitBoards[ALLPIECES];
+        long oppBoardEnPassant = (this.enPassant == -1) ? oppBoard : oppBoard | BitBoardUtils.setBit(this.enPassant);
+        numMov = addPawnCaptures(legalMoves, numMov, pawnCaptureTargets(pawns, this.turnColor, true) & oppBoardEnPassant,
+                this.turnColor, true);
+        numMov = addPawnCaptures(legalMoves, numMov, pawnCaptureTargets(pawns, this.turnColor, false) & oppBoardEnPassant,
+                this.turnColor, false);
+        long singlePushes = pawnPushTargets(pawns, this.turnColor) & empty;
+        numMov = addPawnPushes(legalMoves, numMov, singlePushes, this.turnColor, 8);
+        numMov = addPawnPushes(legalMoves, numMov, pawnDoublePushTargets(singlePushes, this.turnColor) & empty,
+                this.turnColor, 16);
 
         /* Rooks: the first of the dreaded three slide moves. */
         while (rooks != 0) {
@@ -222,7 +276,7 @@ public class GameState {
             rooks &= (rooks - 1);
 
             long attackBoard = ~turnBoard
-                    & SlideMoves.slideAttacks(rookSquare, bitBoards[ALLPIECES], SlideMoves.RookAttacks);
+                    & SlideMoves.rookAttacks(rookSquare, bitBoards[ALLPIECES]);
             while (attackBoard != 0) {
                 int endSquare = Long.numberOfTrailingZeros(attackBoard);
                 legalMoves[numMov++] = MoveGen.moves[rookSquare][endSquare];
@@ -237,7 +291,7 @@ public class GameState {
             bishops &= (bishops - 1);
 
             long attackBoard = ~turnBoard
-                    & SlideMoves.slideAttacks(bishopSquare, bitBoards[ALLPIECES], SlideMoves.BishopAttacks);
+                    & SlideMoves.bishopAttacks(bishopSquare, bitBoards[ALLPIECES]);
 
             while (attackBoard != 0) {
                 int endSquare = Long.numberOfTrailingZeros(attackBoard);
@@ -252,7 +306,7 @@ public class GameState {
             queens &= (queens - 1);
 
             long attackBoard = ~turnBoard
-                    & SlideMoves.slideAttacks(queenSquare, bitBoards[ALLPIECES], SlideMoves.QueenAttacks);
+                    & SlideMoves.queenAttacks(queenSquare, bitBoards[ALLPIECES]);
 
             while (attackBoard != 0) {
                 int endSquare = Long.numberOfTrailingZeros(attackBoard);
@@ -260,9 +314,779 @@ public class GameState {
                 attackBoard &= (attackBoard - 1);
             }
         }
-        /* Return a dynamically sized Array */
-        return Arrays.copyOfRange(legalMoves, 0, numMov);
-    } // nextMoves()
+        return numMov;
+    } // nextMoves(short[])
+
+    /**
+     * Generate all legal moves from the current GameState. Checkers and pinned
+     * pieces are found once, so no move needs to be tried to know it is legal.
+     * The order of the moves is unspecified (it is not the order of nextMoves).
+     * 
+     * @return a list of legal moves (represented as 16-bit integers). It is empty
+     *         if the side to move is checkmated or stalemated.
+     */
+    public short[] legalMoves() {
+        short[] legalMoves = new short[MoveList.MAX_MOVES];
+        return Arrays.copyOf(legalMoves, legalMoves(legalMoves));
+    } // legalMoves()
+
+    /**
+     * Generate all legal moves into a reusable move list.
+     * 
+     * @param list the list to fill (its old moves are overwritten)
+     * @return the number of legal moves
+     */
+    public int legalMoves(MoveList list) {
+        list.size = legalMoves(list.moves, ALL_MOVES);
+        return list.size;
+    } // legalMoves(MoveList)
+
+    /**
+     * Generate one stage of the legal moves into a reusable move list, so a
+     * caller that only wants captures (or wants them first) can skip the quiets.
+     * 
+     * @param list   the list to fill (its old moves are overwritten)
+     * @param stages CAPTURES, QUIETS or ALL_MOVES
+     * @return the number of legal moves in those stages
+     */
+    public int legalMoves(MoveList list, int stages) {
+        list.size = legalMoves(list.moves, stages);
+        return list.size;
+    } // legalMoves(MoveList, int)
+
+    /**
+     * Generate all legal moves into a buffer supplied by the caller.
+     * 
+     * @param legalMoves the buffer to write the moves to (at least
+     *                   MoveList.MAX_MOVES long)
+     * @return the number of legal moves written, 0 if the side to move is
+     *         checkmated or stalemated
+     */
+    public int legalMoves(short[] legalMoves) {
+        return legalMoves(legalMoves, ALL_MOVES);
+    } // legalMoves(short[])
+
+    /**
+     * Generate the legal moves of some stages into a buffer supplied by the
+     * caller. Generating CAPTURES then QUIETS gives the same moves as ALL_MOVES.
+     * 
+     * @param legalMoves the buffer to write the moves to (at least
+     *                   MoveList.MAX_MOVES long)
+     * @param stages     CAPTURES, QUIETS or ALL_MOVES
+     * @return the number of legal moves written
+     */
+    public int legalMoves(short[] legalMoves, int stages) {
+        int numMov = 0;
+        boolean captures = (stages & CAPTURES) != 0;
+        boolean quiets = (stages & QUIETS) != 0;
+
+        boolean white = this.turnColor;
+        long turnBoard = (white) ? bitBoards[WPIECES] : bitBoards[BPIECES];
+        long oppBoard = (white) ? bitBoards[BPIECES] : bitBoards[WPIECES];
+        long occupied = bitBoards[ALLPIECES];
+        long kingBoard = (white) ? bitBoards[WKING] : bitBoards[BKING];
+        int kingSquare = Long.numberOfTrailingZeros(kingBoard);
+        long oppRooks = (white) ? bitBoards[BROOKS] | bitBoards[BQUEEN] : bitBoards[WROOKS] | bitBoards[WQUEEN];
+        long oppBishops = (white) ? bitBoards[BBISHOPS] | bitBoards[BQUEEN]
+                : bitBoards[WBISHOPS] | bitBoards[WQUEEN];
+
+        /*
+         * Every square the opponent attacks, seen through our king so it can't step
+         * back along the ray of a checking slider
+         */
+        long attacked = attackedSquares(!white, occupied ^ kingBoard);
+
+        /* Who is giving check, and which squares stop it (capture or block) */
+        long checkers = ((attacked & kingBoard) != 0) ? attackersTo(kingSquare, occupied, !white) : 0L;
+        long evasions = -1L;
+        if (checkers != 0) {
+            int checkerSquare = Long.numberOfTrailingZeros(checkers);
+            evasions = SlideMoves.Between[kingSquare][checkerSquare] | checkers;
+        } // if
+        boolean doubleCheck = Long.bitCount(checkers) > 1;
+
+        /* The squares the pieces may land on in these stages */
+        long targets = ((captures) ? oppBoard : 0L) | ((quiets) ? ~occupied : 0L);
+
+        /* Pinned pieces: the only piece between the king and an enemy slider */
+        long pinned = 0L;
+        long snipers = (SlideMoves.RookAttacks[kingSquare] & oppRooks)
+                | (SlideMoves.BishopAttacks[kingSquare] & oppBishops);
+        while (snipers != 0) {
+            int sniperSquare = Long.numberOfTrailingZeros(snipers);
+            snipers &= (snipers - 1);
+            long blockers = SlideMoves.Between[kingSquare][sniperSquare] & occupied;
+            if (Long.bitCount(blockers) == 1) {
+                pinned |= blockers & turnBoard;
+            } // if
+        } // while
+
+        if (!doubleCheck) {
+            long knights = ((white) ? bitBoards[WKNIGHTS] : bitBoards[BKNIGHTS]) & ~pinned;
+            while (knights != 0) {
+                int knightSquare = Long.numberOfTrailingZeros(knights);
+                knights &= (knights - 1);
+                long attackBoard = KnightMoves.knightAttacks[knightSquare] & targets & evasions;
+                while (attackBoard != 0) {
+                    legalMoves[numMov++] = MoveGen.moves[knightSquare][Long.numberOfTrailingZeros(attackBoard)];
+                    attackBoard &= (attackBoard - 1);
+                } // while
+            } // while
+        } // if
+
+        /* The king can go anywhere the opponent doesn't attack */
+        if (checkers == 0 && quiets) {
+            if (MoveGen.canCastleKingSide(this, attacked)) {
+                legalMoves[numMov++] = MoveGen.createMove(kingSquare, kingSquare + 2, KingMoves.CASTLE_FLAG, 0);
+            } // if
+            if (MoveGen.canCastleQueenSide(this, attacked)) {
+                legalMoves[numMov++] = MoveGen.createMove(kingSquare, kingSquare - 2, KingMoves.CASTLE_FLAG, 0);
+            } // if
+        } // if
+        long kingTargets = KingMoves.kingAttacks[kingSquare] & targets & ~attacked;
+        while (kingTargets != 0) {
+            legalMoves[numMov++] = MoveGen.moves[kingSquare][Long.numberOfTrailingZeros(kingTargets)];
+            kingTargets &= (kingTargets - 1);
+        } // while
+
+        /* In double check only the king can move */
+        if (doubleCheck) {
+            return numMov;
+        } // if
+
+        /* Pawns that aren't pinned move all at once, by shifting the whole bitboard */
+        long pawns = (white) ? bitBoards[WPAWNS] : bitBoards[BPAWNS];
+        long freePawns = pawns & ~pinned;
+        if (captures) {
+            numMov = addPawnCaptures(legalMoves, numMov, pawnCaptureTargets(freePawns, white, true) & oppBoard & evasions,
+                    white, true);
+            numMov = addPawnCaptures(legalMoves, numMov, pawnCaptureTargets(freePawns, white, false) & oppBoard & evasions,
+                    white, false);
+        } // if
+        long singlePushes = pawnPushTargets(freePawns, white) & ~occupied;
+        long doublePushes = pawnDoublePushTargets(singlePushes, white) & ~occupied;
+        long promotionRank = (white) ? 0xFF00000000000000L : 0xFFL;
+
+        /* Pushes to the last rank are promotions, so they count as captures */
+        long pushStages = ((captures) ? promotionRank : 0L) | ((quiets) ? ~promotionRank : 0L);
+        numMov = addPawnPushes(legalMoves, numMov, singlePushes & pushStages & evasions, white, 8);
+        if (quiets) {
+            numMov = addPawnPushes(legalMoves, numMov, doublePushes & evasions, white, 16);
+        } // if
+
+        /* En passant can uncover the king in odd ways, so just try it */
+        if (captures && this.enPassant != -1) {
+            long[] attackerMaps = (white) ? PawnMoves.pawnCapturesB : PawnMoves.pawnCapturesW;
+            long capturers = attackerMaps[this.enPassant] & pawns;
+            while (capturers != 0) {
+                int pawnSquare = Long.numberOfTrailingZeros(capturers);
+                capturers &= (capturers - 1);
+                if (isLegalEnPassant(pawnSquare, kingSquare)) {
+                    legalMoves[numMov++] = MoveGen.moves[pawnSquare][this.enPassant];
+                } // if
+            } // while
+        } // if
+
+        /* Pinned pawns, one at a time, kept on the line of the pin */
+        long[] pawnQuiets = (white) ? PawnMoves.pawnQuietsW : PawnMoves.pawnQuietsB;
+        long[] pawnCaptures = (white) ? PawnMoves.pawnCapturesW : PawnMoves.pawnCapturesB;
+        long[] pawnStarts = (white) ? PawnMoves.pawnStartsW : PawnMoves.pawnStartsB;
+        boolean[] startingRow = (white) ? PawnMoves.WHITE_START_ROW : PawnMoves.BLACK_START_ROW;
+        boolean[] promotionRow = (white) ? PawnMoves.WHITE_PROMOTION_ROW : PawnMoves.BLACK_PROMOTION_ROW;
+        long pinnedPawns = pawns & pinned;
+        while (pinnedPawns != 0) {
+            int pawnSquare = Long.numberOfTrailingZeros(pinnedPawns);
+            pinnedPawns &= (pinnedPawns - 1);
+
+            long pushes = pawnQuiets[pawnSquare] & ~occupied;
+            if (pushes != 0 && startingRow[pawnSquare]) {
+                pushes |= pawnStarts[pawnSquare] & ~occupied;
+            } // if
+            long attackBoard = 0L;
+            if (captures) {
+                attackBoard |= (pawnCaptures[pawnSquare] & oppBoard) | (pushes & promotionRank);
+            } // if
+            if (quiets) {
+                attackBoard |= pushes & ~promotionRank;
+            } // if
+            attackBoard &= evasions & SlideMoves.Line[kingSquare][pawnSquare];
+            while (attackBoard != 0) {
+                int endSquare = Long.numberOfTrailingZeros(attackBoard);
+                if (promotionRow[endSquare]) {
+                    for (int promotions = 0; promotions < 4; promotions++) {
+                        legalMoves[numMov++] = MoveGen.createMove(pawnSquare, endSquare, promotions,
+                                PawnMoves.PROMOTION_FLAG);
+                    } // for
+                } else {
+                    legalMoves[numMov++] = MoveGen.moves[pawnSquare][endSquare];
+                } // if/else
+                attackBoard &= (attackBoard - 1);
+            } // while
+        } // while
+
+        /* The sliders, with pinned ones kept on the line of the pin */
+        long rooks = (white) ? bitBoards[WROOKS] : bitBoards[BROOKS];
+        long bishops = (white) ? bitBoards[WBISHOPS] : bitBoards[BBISHOPS];
+        long queens = (white) ? bitBoards[WQUEEN] : bitBoards[BQUEEN];
+        for (int type = 0; type < 3; type++) {
+            long pieces = (type == 0) ? rooks : (type == 1) ? bishops : queens;
+            while (pieces != 0) {
+                int square = Long.numberOfTrailingZeros(pieces);
+                pieces &= (pieces - 1);
+                long attackBoard = switch (type) {
+                    case 0 -> SlideMoves.rookAttacks(square, occupied);
+                    case 1 -> SlideMoves.bishopAttacks(square, occupied);
+                    default -> SlideMoves.queenAttacks(square, occupied);
+                };
+                attackBoard &= targets & evasions;
+                if ((pinned & BitBoardUtils.setBit(square)) != 0) {
+                    attackBoard &= SlideMoves.Line[kingSquare][square];
+                } // if
+                while (attackBoard != 0) {
+                    legalMoves[numMov++] = MoveGen.moves[square][Long.numberOfTrailingZeros(attackBoard)];
+                    attackBoard &= (attackBoard - 1);
+                } // while
+            } // while
+        } // for
+        return numMov;
+    } // legalMoves(short[], int)
+
+    /**
+     * Find the squares a set of pawns would move to with a single push (not
+     * checking that they are empty).
+     * 
+     * @param pawns the pawns
+     * @param white true if the pawns are white
+     * @return the squares one rank ahead of them
+     */
+    private static long pawnPushTargets(long pawns, boolean white) {
+        return (white) ? pawns << 8 : pawns >>> 8;
+    } // pawnPushTargets(long, boolean)
+
+    /**
+     * Find the squares pawns would reach with a double push, given the empty
+     * squares their single pushes reached.
+     * 
+     * @param singlePushes the (empty) single push targets
+     * @param white        true if the pawns are white
+     * @return the squares two ranks ahead of pawns still on their starting rank
+     */
+    private static long pawnDoublePushTargets(long singlePushes, boolean white) {
+        return (white) ? (singlePushes & 0x0000000000FF0000L) << 8 : (singlePushes & 0x0000FF0000000000L) >>> 8;
+    } // pawnDoublePushTargets(long, boolean)
+
+    /**
+     * Find the squares a set of pawns attack towards one side.
+     * 
+     * @param pawns    the pawns
+     * @param white    true if the pawns are white
+     * @param leftward true for captures towards the a file, false for the h file
+     * @return the attacked squares
+     */
+    private static long pawnCaptureTargets(long pawns, boolean white, boolean leftward) {
+        if (leftward) {
+            return ((white) ? pawns << 7 : pawns >>> 9) & ~BitBoardUtils.FILE_H;
+        } // if
+        return ((white) ? pawns << 9 : pawns >>> 7) & ~BitBoardUtils.FILE_A;
+    } // pawnCaptureTargets(long, boolean, boolean)
+
+    /**
+     * Write the pawn moves of a set of push targets, as four promotions on the
+     * last rank.
+     * 
+     * @param moves    the buffer to write to
+     * @param numMov   the number of moves already in it
+     * @param targets  the squares the pawns are pushed to
+     * @param white    true if the pawns are white
+     * @param distance how far the pawns moved (8 or 16)
+     * @return the new number of moves
+     */
+    private static int addPawnPushes(short[] moves, int numMov, long targets, boolean white, int distance) {
+        return addPawnTargets(moves, numMov, targets, (white) ? distance : -distance);
+    } // addPawnPushes(short[], int, long, boolean, int)
+
+    /**
+     * Write the pawn moves of a set of capture targets, as four promotions on the
+     * last rank.
+     * 
+     * @param moves    the buffer to write to
+     * @param numMov   the number of moves already in it
+     * @param targets  the squares the pawns capture on
+     * @param white    true if the pawns are white
+     * @param leftward true for captures towards the a file, false for the h file
+     * @return the new number of moves
+     */
+    private static int addPawnCaptures(short[] moves, int numMov, long targets, boolean white, boolean leftward) {
+        int shift = (leftward) ? ((white) ? 7 : -9) : ((white) ? 9 : -7);
+        return addPawnTargets(moves, numMov, targets, shift);
+    } // addPawnCaptures(short[], int, long, boolean, boolean)
+
+    /**
+     * Write a pawn move for each target square, the pawn coming from the square
+     * shift below it.
+     * 
+     * @param moves   the buffer to write to
+     * @param numMov  the number of moves already in it
+     * @param targets the target squares
+     * @param shift   the destination minus the origin
+     * @return the new number of moves
+     */
+    private static int addPawnTargets(short[] moves, int numMov, long targets, int shift) {
+        while (targets != 0) {
+            int endSquare = Long.numberOfTrailingZeros(targets);
+            targets &= (targets - 1);
+            if (endSquare >= 56 || endSquare < 8) {
+                for (int promotions = 0; promotions < 4; promotions++) {
+                    moves[numMov++] = MoveGen.createMove(endSquare - shift, endSquare, promotions,
+                            PawnMoves.PROMOTION_FLAG);
+                } // for
+            } else {
+                moves[numMov++] = MoveGen.moves[endSquare - shift][endSquare];
+            } // if/else
+        } // while
+        return numMov;
+    } // addPawnTargets(short[], int, long, int)
+
+    /**
+     * Check if the side to move is in check.
+     * 
+     * @return true if the king of the side to move is attacked, else false
+     */
+    public boolean inCheck() {
+        long kingBoard = (this.turnColor) ? bitBoards[WKING] : bitBoards[BKING];
+        return attackersTo(Long.numberOfTrailingZeros(kingBoard), bitBoards[ALLPIECES], oppColor()) != 0;
+    } // inCheck()
+
+    /**
+     * Find every square a color attacks (including squares holding its own
+     * pieces).
+     * 
+     * @param color true for white, false for black
+     * @return a bitboard of the attacked squares
+     */
+    public long attackedSquares(boolean color) {
+        return attackedSquares(color, bitBoards[ALLPIECES]);
+    } // attackedSquares(boolean)
+
+    /**
+     * Find every square a color attacks, with sliders stopped by a given set of
+     * occupied squares (e.g. with a king taken out, to see behind it).
+     * 
+     * @param color    true for white, false for black
+     * @param occupied the occupied bitboard to slide through
+     * @return a bitboard of the attacked squares
+     */
+    public long attackedSquares(boolean color, long occupied) {
+        long attacks = (color) ? PawnMoves.whiteAttacks(bitBoards[WPAWNS]) : PawnMoves.blackAttacks(bitBoards[BPAWNS]);
+        attacks |= KnightMoves.attacksOf((color) ? bitBoards[WKNIGHTS] : bitBoards[BKNIGHTS]);
+        attacks |= KingMoves.attacksOf((color) ? bitBoards[WKING] : bitBoards[BKING]);
+        long queens = (color) ? bitBoards[WQUEEN] : bitBoards[BQUEEN];
+        long rooks = ((color) ? bitBoards[WROOKS] : bitBoards[BROOKS]) | queens;
+        long bishops = ((color) ? bitBoards[WBISHOPS] : bitBoards[BBISHOPS]) | queens;
+        while (rooks != 0) {
+            attacks |= SlideMoves.rookAttacks(Long.numberOfTrailingZeros(rooks), occupied);
+            rooks &= (rooks - 1);
+        } // while
+        while (bishops != 0) {
+            attacks |= SlideMoves.bishopAttacks(Long.numberOfTrailingZeros(bishops), occupied);
+            bishops &= (bishops - 1);
+        } // while
+        return attacks;
+    } // attackedSquares(boolean, long)
+
+    /**
+     * Find every piece of a color attacking a square.
+     * 
+     * @param square   the square that is attacked
+     * @param occupied the occupied bitboard to slide through
+     * @param byWhite  true to find white attackers, false for black
+     * @return a bitboard of the attackers
+     */
+    private long attackersTo(int square, long occupied, boolean byWhite) {
+        long knights = (byWhite) ? bitBoards[WKNIGHTS] : bitBoards[BKNIGHTS];
+        long pawns = (byWhite) ? bitBoards[WPAWNS] : bitBoards[BPAWNS];
+        long king = (byWhite) ? bitBoards[WKING] : bitBoards[BKING];
+        long queens = (byWhite) ? bitBoards[WQUEEN] : bitBoards[BQUEEN];
+        long rooks = ((byWhite) ? bitBoards[WROOKS] : bitBoards[BROOKS]) | queens;
+        long bishops = ((byWhite) ? bitBoards[WBISHOPS] : bitBoards[BBISHOPS]) | queens;
+
+        /* A pawn attacks us from where our own pawn would capture */
+        long[] pawnCaps = (byWhite) ? PawnMoves.pawnCapturesB : PawnMoves.pawnCapturesW;
+        return (KnightMoves.knightAttacks[square] & knights)
+                | (pawnCaps[square] & pawns)
+                | (KingMoves.kingAttacks[square] & king)
+                | (SlideMoves.rookAttacks(square, occupied) & rooks)
+                | (SlideMoves.bishopAttacks(square, occupied) & bishops);
+    } // attackersTo(int, long, boolean)
+
+    /**
+     * Check if an en passant capture leaves the king safe. Both pawns leave their
+     * squares at once, which pins can't describe.
+     * 
+     * @param pawnSquare the square of the capturing pawn
+     * @param kingSquare the square of our king
+     * @return true if the capture is legal, else false
+     */
+    private boolean isLegalEnPassant(int pawnSquare, int kingSquare) {
+        long capturedMask = (this.turnColor) ? BitBoardUtils.setBit(this.enPassant - 8)
+                : BitBoardUtils.setBit(this.enPassant + 8);
+        long occupied = (bitBoards[ALLPIECES] ^ BitBoardUtils.setBit(pawnSquare) ^ capturedMask)
+                | BitBoardUtils.setBit(this.enPassant);
+        return (attackersTo(kingSquare, occupied, oppColor()) & ~capturedMask) == 0;
+    } // isLegalEnPassant(int, int)
+
+    /**
+     * Make a move in place, pushing an undo record so it can be taken back with
+     * unmakeMove.
+     * 
+     * @param move the move to make
+     * @return true if the move was legal (didn't leave the king in check), else
+     *         false. The move is made either way and must be unmade.
+     * @throws IllegalArgumentException if there is nothing at the start square
+     */
+    public boolean makeMove(short move) {
+        if (this.undoStack == null) {
+            this.undoStack = new long[UNDO_STACK_SIZE];
+        } else if (this.undoCount == this.undoStack.length) {
+            this.undoStack = Arrays.copyOf(this.undoStack, this.undoCount * 2);
+        } // if/else
+        int castling = castlingBits();
+        int lastEnPassant = this.enPassant;
+        int lastClock = this.halfmoveClock;
+
+        int captured = playMove(move);
+
+        /* Pack the move, captured piece, castling rights, en passant square and clock */
+        this.undoStack[this.undoCount++] = (move & 0xFFFFL)
+                | ((long) (captured + 1) << 16)
+                | ((long) castling << 20)
+                | ((long) (lastEnPassant + 1) << 24)
+                | ((long) lastClock << 31);
+        return isLegal(oppColor());
+    } // makeMove(short)
+
+    /**
+     * Take back the last move made with makeMove.
+     * 
+     * @throws IllegalStateException if there is no move to take back
+     */
+    public void unmakeMove() {
+        if (this.undoCount == 0) {
+            throw new IllegalStateException("No move to unmake.");
+        } // if
+        long record = this.undoStack[--this.undoCount];
+        short move = (short) record;
+        int captured = (int) ((record >>> 16) & 0xF) - 1;
+        setCastlingBits((int) ((record >>> 20) & 0xF));
+        this.enPassant = (int) ((record >>> 24) & 0x7F) - 1;
+        this.halfmoveClock = (int) (record >>> 31);
+        this.turnColor = oppColor();
+        if (!this.turnColor) {
+            this.fullmoveNumber--;
+        } // if
+
+        int origSquare = MoveGen.origin(move);
+        int destSquare = MoveGen.destination(move);
+        long origMask = BitBoardUtils.setBit(origSquare);
+        long destMask = BitBoardUtils.setBit(destSquare);
+        int turnBoard = (this.turnColor) ? WPIECES : BPIECES;
+        int oppBoard = (this.turnColor) ? BPIECES : WPIECES;
+
+        /* Move the piece back, turning a promoted piece back into a pawn */
+        int pieceType = this.mailbox[destSquare];
+        this.bitBoards[pieceType] &= ~destMask;
+        if (MoveGen.flag(move) == PawnMoves.PROMOTION_FLAG) {
+            pieceType = (this.turnColor) ? WPAWNS : BPAWNS;
+        } // if
+        this.bitBoards[pieceType] |= origMask;
+        this.bitBoards[turnBoard] = (this.bitBoards[turnBoard] & ~destMask) | origMask;
+        this.mailbox[origSquare] = (byte) pieceType;
+        this.mailbox[destSquare] = (byte) NO_PIECE;
+
+        /* Put back whatever was captured */
+        if (captured != NO_PIECE) {
+            int capturedSquare = destSquare;
+            if ((pieceType == WPAWNS || pieceType == BPAWNS) && destSquare == this.enPassant) {
+                capturedSquare = (this.turnColor) ? destSquare - 8 : destSquare + 8;
+            } // if
+            long capturedMask = BitBoardUtils.setBit(capturedSquare);
+            this.bitBoards[captured] |= capturedMask;
+            this.bitBoards[oppBoard] |= capturedMask;
+            this.mailbox[capturedSquare] = (byte) captured;
+        } // if
+
+        /* Put the rook back if it was a castle */
+        if (pieceType == WKING || pieceType == BKING) {
+            if (destSquare - origSquare == 2) {
+                moveCastlingRook(origSquare + 1, origSquare + 3);
+            } else if (origSquare - destSquare == 2) {
+                moveCastlingRook(origSquare - 1, origSquare - 4);
+            } // if/else
+        } // if
+        this.bitBoards[ALLPIECES] = this.bitBoards[WPIECES] | this.bitBoards[BPIECES];
+        this.zobristKey = this.history[--this.historyCount];
+        if (VERIFY_ZOBRIST) {
+            verifyKey();
+        } // if
+    } // unmakeMove()
+
+    /**
+     * Play a move on this state without recording anything to undo it.
+     * 
+     * @param move the move to play
+     * @return the piece captured by the move, or NO_PIECE
+     * @throws IllegalArgumentException if there is nothing at the start square
+     */
+    int playMove(short move) {
+        int origSquare = MoveGen.origin(move);
+        int destSquare = MoveGen.destination(move);
+        long origMask = BitBoardUtils.setBit(origSquare);
+        long destMask = BitBoardUtils.setBit(destSquare);
+        int turnBoard = (this.turnColor) ? WPIECES : BPIECES;
+        int oppBoard = (this.turnColor) ? BPIECES : WPIECES;
+
+        /* Our pieces are on the even boards for white, odd for black */
+        int pieceType = this.mailbox[origSquare];
+        if (pieceType == NO_PIECE || ((pieceType & 1) == 0) != this.turnColor) {
+            throw new IllegalArgumentException("Move cannot be applied, nothing at start square.");
+        } // if
+        int captured = this.mailbox[destSquare];
+        pushHistory(this.zobristKey);
+
+        /* Take the old castling rights and en passant square out of the key */
+        long key = this.zobristKey ^ Zobrist.CASTLING[castlingBits()] ^ Zobrist.enPassantKey(this.enPassant);
+
+        /* Check if we need to remove castling rights. */
+        if (pieceType == WKING) {
+            this.whiteKingSide = false;
+            this.whiteQueenSide = false;
+        } else if (pieceType == BKING) {
+            this.blackKingSide = false;
+            this.blackQueenSide = false;
+        } // if
+        clearCastlingRights(origSquare);
+        clearCastlingRights(destSquare);
+
+        /* Take the captured piece off and move ours */
+        if (captured != NO_PIECE) {
+            this.bitBoards[captured] &= ~destMask;
+            this.bitBoards[oppBoard] &= ~destMask;
+            key ^= Zobrist.PIECES[captured][destSquare];
+        } // if
+        this.bitBoards[pieceType] = (this.bitBoards[pieceType] & ~origMask) | destMask;
+        this.bitBoards[turnBoard] = (this.bitBoards[turnBoard] & ~origMask) | destMask;
+        this.mailbox[origSquare] = (byte) NO_PIECE;
+        this.mailbox[destSquare] = (byte) pieceType;
+        key ^= Zobrist.PIECES[pieceType][origSquare] ^ Zobrist.PIECES[pieceType][destSquare];
+
+        boolean isPawn = pieceType == WPAWNS || pieceType == BPAWNS;
+
+        /* Captures and pawn moves can't be undone, so they reset the clock */
+        this.halfmoveClock = (isPawn || captured != NO_PIECE) ? 0 : this.halfmoveClock + 1;
+        if (!this.turnColor) {
+            this.fullmoveNumber++;
+        } // if
+
+        /* Handle En Passant */
+        if (isPawn && destSquare == this.enPassant) {
+            long capturedMask = (this.turnColor) ? destMask >>> 8 : destMask << 8;
+            captured = (this.turnColor) ? BPAWNS : WPAWNS;
+            this.bitBoards[captured] &= ~capturedMask;
+            this.bitBoards[oppBoard] &= ~capturedMask;
+            this.mailbox[Long.numberOfTrailingZeros(capturedMask)] = (byte) NO_PIECE;
+            key ^= Zobrist.PIECES[captured][Long.numberOfTrailingZeros(capturedMask)];
+        } // if
+
+        /* Handle promotion moves */
+        if (MoveGen.flag(move) == PawnMoves.PROMOTION_FLAG) {
+            int promType = MoveGen.promotionType(move);
+            int promPiece;
+            if (this.turnColor) {
+                promPiece = switch (promType) {
+                    case 0 -> WKNIGHTS;
+                    case 1 -> WBISHOPS;
+                    case 2 -> WROOKS;
+                    default -> WQUEEN;
+                };
+            } else {
+                promPiece = switch (promType) {
+                    case 0 -> BKNIGHTS;
+                    case 1 -> BBISHOPS;
+                    case 2 -> BROOKS;
+                    default -> BQUEEN;
+                };
+            } // if/else
+            this.bitBoards[pieceType] &= ~destMask;
+            this.bitBoards[promPiece] |= destMask;
+            this.mailbox[destSquare] = (byte) promPiece;
+            key ^= Zobrist.PIECES[pieceType][destSquare] ^ Zobrist.PIECES[promPiece][destSquare];
+        } // if
+
+        /* Castling moves the rook as well */
+        if (pieceType == WKING || pieceType == BKING) {
+            int rooks = (this.turnColor) ? WROOKS : BROOKS;
+            if (destSquare - origSquare == 2) {
+                moveCastlingRook(origSquare + 3, origSquare + 1);
+                key ^= Zobrist.PIECES[rooks][origSquare + 3] ^ Zobrist.PIECES[rooks][origSquare + 1];
+            } else if (origSquare - destSquare == 2) {
+                moveCastlingRook(origSquare - 4, origSquare - 1);
+                key ^= Zobrist.PIECES[rooks][origSquare - 4] ^ Zobrist.PIECES[rooks][origSquare - 1];
+            } // if/else
+        } // if
+
+        /* If it was a starting pawn move, the en passant square is the one it skipped. */
+        if (isPawn && Math.abs(destSquare - origSquare) == 16) {
+            this.enPassant = (origSquare + destSquare) / 2;
+        } else {
+            this.enPassant = -1;
+        } // if/else
+
+        this.bitBoards[ALLPIECES] = this.bitBoards[WPIECES] | this.bitBoards[BPIECES];
+
+        /* Switch whos turn it is */
+        this.turnColor = oppColor();
+        this.zobristKey = key ^ Zobrist.CASTLING[castlingBits()] ^ Zobrist.enPassantKey(this.enPassant)
+                ^ Zobrist.BLACK_TO_MOVE;
+        if (VERIFY_ZOBRIST) {
+            verifyKey();
+        } // if
+        return captured;
+    } // playMove(short)
+
+    /**
+     * Add a key to the end of the history.
+     * 
+     * @param key the key of the position being left
+     */
+    private void pushHistory(long key) {
+        if (this.history == null) {
+            this.history = new long[UNDO_STACK_SIZE];
+        } else if (this.historyCount == this.history.length) {
+            this.history = Arrays.copyOf(this.history, this.historyCount * 2);
+        } // if/else
+        this.history[this.historyCount++] = key;
+    } // pushHistory(long)
+
+    /**
+     * Replace the history with some keys.
+     * 
+     * @param keys the keys, oldest first
+     * @param from the index of the first key to use
+     * @param to   the index after the last key to use
+     */
+    public void setHistory(long[] keys, int from, int to) {
+        this.historyCount = to - from;
+        this.history = new long[Math.max(UNDO_STACK_SIZE, this.historyCount + UNDO_STACK_SIZE)];
+        System.arraycopy(keys, from, this.history, 0, this.historyCount);
+    } // setHistory(long[], int, int)
+
+    /**
+     * Get the keys of the positions since the last capture or pawn move (the
+     * only ones this position can repeat).
+     * 
+     * @return the keys, oldest first
+     */
+    public long[] recentHistory() {
+        int count = Math.min(this.historyCount, this.halfmoveClock);
+        return (count == 0) ? new long[0]
+                : Arrays.copyOfRange(this.history, this.historyCount - count, this.historyCount);
+    } // recentHistory()
+
+    /**
+     * Check if this position has been seen before with the same side to move,
+     * since the last capture or pawn move. Only every other key in that window
+     * has to be looked at, and it is usually empty or short.
+     * 
+     * @return true if the position is a repetition, else false
+     */
+    public boolean isRepetition() {
+        int oldest = this.historyCount - Math.min(this.historyCount, this.halfmoveClock);
+        for (int i = this.historyCount - 4; i >= oldest; i -= 2) {
+            if (this.history[i] == this.zobristKey) {
+                return true;
+            } // if
+        } // for
+        return false;
+    } // isRepetition()
+
+    /**
+     * Check if the game is drawn by the fifty-move rule or by repetition (a
+     * single repetition is counted, since the side that repeated could do it
+     * again).
+     * 
+     * @return true if the position is a draw, else false
+     */
+    public boolean isDraw() {
+        return this.halfmoveClock >= 100 || isRepetition();
+    } // isDraw()
+
+    /**
+     * Check the incremental Zobrist key against a full recomputation.
+     * 
+     * @throws IllegalStateException if they differ
+     */
+    public void verifyKey() {
+        long fullKey = Zobrist.hash(this);
+        if (this.zobristKey != fullKey) {
+            throw new IllegalStateException("Zobrist key out of sync: " + Long.toHexString(this.zobristKey)
+                    + " != " + Long.toHexString(fullKey) + " in " + setFENBoard());
+        } // if
+    } // verifyKey()
+
+    /**
+     * Move the rook of the side to move while castling.
+     * 
+     * @param from the square the rook is on
+     * @param to   the square the rook goes to
+     */
+    private void moveCastlingRook(int from, int to) {
+        int rooks = (this.turnColor) ? WROOKS : BROOKS;
+        int turnBoard = (this.turnColor) ? WPIECES : BPIECES;
+        long moveMask = BitBoardUtils.setBit(from) | BitBoardUtils.setBit(to);
+        this.bitBoards[rooks] ^= moveMask;
+        this.bitBoards[turnBoard] ^= moveMask;
+        this.mailbox[from] = (byte) NO_PIECE;
+        this.mailbox[to] = (byte) rooks;
+    } // moveCastlingRook(int, int)
+
+    /**
+     * Remove the castling rights belonging to a corner square, if a piece moves
+     * from or to it.
+     * 
+     * @param square the square moved from or to
+     */
+    private void clearCastlingRights(int square) {
+        switch (square) {
+            case 0 -> this.whiteQueenSide = false;
+            case 7 -> this.whiteKingSide = false;
+            case 56 -> this.blackQueenSide = false;
+            case 63 -> this.blackKingSide = false;
+            default -> {
+            }
+        } // switch
+    } // clearCastlingRights(int)
+
+    /**
+     * Pack the castling rights into four bits (K, Q, k, q from low to high).
+     * 
+     * @return the packed castling rights
+     */
+    public int castlingBits() {
+        return (this.whiteKingSide ? 1 : 0) | (this.whiteQueenSide ? 2 : 0)
+                | (this.blackKingSide ? 4 : 0) | (this.blackQueenSide ? 8 : 0);
+    } // castlingBits()
+
+    /**
+     * Set the castling rights from four packed bits (K, Q, k, q from low to high).
+     * 
+     * @param bits the packed castling rights
+     */
+    public void setCastlingBits(int bits) {
+        this.whiteKingSide = (bits & 1) != 0;
+        this.whiteQueenSide = (bits & 2) != 0;
+        this.blackKingSide = (bits & 4) != 0;
+        this.blackQueenSide = (bits & 8) != 0;
+    } // setCastlingBits(int)
 
     /**
      * Return the opposite color of the engine.
@@ -321,12 +1145,12 @@ public class GameState {
             return false;
         } // if
         /* Move the king like a bishop. If it hits bishops or queens its in check. */
-        attackBoard = SlideMoves.slideAttacks(kingSquare, this.bitBoards[ALLPIECES], SlideMoves.BishopAttacks);
+        attackBoard = SlideMoves.bishopAttacks(kingSquare, this.bitBoards[ALLPIECES]);
         if ((attackBoard & (oppBishop | oppQueen)) != 0) {
             return false;
         } // if
         /* Move the king like a rook. If it hits rooks or queens its in check. */
-        attackBoard = SlideMoves.slideAttacks(kingSquare, this.bitBoards[ALLPIECES], SlideMoves.RookAttacks);
+        attackBoard = SlideMoves.rookAttacks(kingSquare, this.bitBoards[ALLPIECES]);
         if ((attackBoard & (oppRook | oppQueen)) != 0) {
             return false;
         } // if
@@ -406,7 +1230,13 @@ public class GameState {
         str.append(" ");
         str.append(getCastlingRights());
         str.append(" ");
-        str.append("- 0 1");
+        if (this.enPassant == -1) {
+            str.append("-");
+        } else {
+            str.append((char) ('a' + this.enPassant % 8)).append(this.enPassant / 8 + 1);
+        } // if/else
+        str.append(" ").append(this.halfmoveClock);
+        str.append(" ").append(this.fullmoveNumber);
 
         return str.toString();
     } //
@@ -440,19 +1270,21 @@ public class GameState {
     }
     
     private char getPieceAt(int square) {
-        if ((bitBoards[WPAWNS] & (1L << square)) != 0) return 'P';
-        if ((bitBoards[BPAWNS] & (1L << square)) != 0) return 'p';
-        if ((bitBoards[WKNIGHTS] & (1L << square)) != 0) return 'N';
-        if ((bitBoards[BKNIGHTS] & (1L << square)) != 0) return 'n';
-        if ((bitBoards[WBISHOPS] & (1L << square)) != 0) return 'B';
-        if ((bitBoards[BBISHOPS] & (1L << square)) != 0) return 'b';
-        if ((bitBoards[WROOKS] & (1L << square)) != 0) return 'R';
-        if ((bitBoards[BROOKS] & (1L << square)) != 0) return 'r';
-        if ((bitBoards[WQUEEN] & (1L << square)) != 0) return 'Q';
-        if ((bitBoards[BQUEEN] & (1L << square)) != 0) return 'q';
-        if ((bitBoards[WKING] & (1L << square)) != 0) return 'K';
-        if ((bitBoards[BKING] & (1L << square)) != 0) return 'k';
-        return ' '; // Empty square
+        return switch (this.mailbox[square]) {
+            case WPAWNS -> 'P';
+            case BPAWNS -> 'p';
+            case WKNIGHTS -> 'N';
+            case BKNIGHTS -> 'n';
+            case WBISHOPS -> 'B';
+            case BBISHOPS -> 'b';
+            case WROOKS -> 'R';
+            case BROOKS -> 'r';
+            case WQUEEN -> 'Q';
+            case BQUEEN -> 'q';
+            case WKING -> 'K';
+            case BKING -> 'k';
+            default -> ' '; // Empty square
+        };
     }
 
     private String turnColorStr() {
@@ -466,16 +1298,16 @@ public class GameState {
     private String getCastlingRights() {
         StringBuilder str = new StringBuilder();
         if (this.whiteKingSide) {
-            str.append("W");
+            str.append("K");
         }
         if (this.whiteQueenSide) {
-            str.append("B");
+            str.append("Q");
         }
         if (this.blackKingSide) {
-            str.append("w");
+            str.append("k");
         }
         if (this.blackQueenSide) {
-            str.append("b");
+            str.append("q");
         }
 
         if (str.toString().equals("")) {
@@ -514,6 +1346,12 @@ public class GameState {
         } else {
             this.enPassant = UIUtils.toSquareIndex(parts[3]);
         }
+
+        /* Parse the clocks, and forget the positions before this one */
+        this.halfmoveClock = Integer.parseInt(parts[4]);
+        this.fullmoveNumber = Integer.parseInt(parts[5]);
+        this.historyCount = 0;
+        this.zobristKey = Zobrist.hash(this);
     } // setBoardFEN
 
     /**
@@ -564,8 +1402,34 @@ public class GameState {
         bitBoards[BPIECES] = bitBoards[BPAWNS] | bitBoards[BBISHOPS] | bitBoards[BKNIGHTS] | bitBoards[BROOKS]
                 | bitBoards[BKING] | bitBoards[BQUEEN];
         bitBoards[ALLPIECES] = bitBoards[WPIECES] | bitBoards[BPIECES];
+        fillMailbox();
+        this.zobristKey = Zobrist.hash(this);
     } // setPieces(String)
 
+    /**
+     * Rebuild the mailbox from the bitboards.
+     */
+    private void fillMailbox() {
+        Arrays.fill(this.mailbox, (byte) NO_PIECE);
+        for (int piece = 0; piece < 12; piece++) {
+            long board = this.bitBoards[piece];
+            while (board != 0) {
+                this.mailbox[Long.numberOfTrailingZeros(board)] = (byte) piece;
+                board &= (board - 1);
+            } // while
+        } // for
+    } // fillMailbox()
+
+    /**
+     * Get the piece on a square.
+     * 
+     * @param square the square index
+     * @return the bitboard index of the piece (WKING...BPAWNS), or NO_PIECE
+     */
+    public int pieceTypeAt(int square) {
+        return this.mailbox[square];
+    } // pieceTypeAt(int)
+
     /**
      * Set castling rights according to the FEN castling string.
      * 
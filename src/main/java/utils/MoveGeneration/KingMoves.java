@@ -58,4 +58,17 @@ public class KingMoves {
         } // for
         return bitboard;
     } // generatekingAttacks(int)
+
+    /**
+     * Find every square attacked by a set of kings at once, by shifting the
+     * whole bitboard.
+     * 
+     * @param kings the kings' bitboard
+     * @return the attacked squares
+     */
+    public static long attacksOf(long kings) {
+        long attacks = ((kings << 1) & ~BitBoardUtils.FILE_A) | ((kings >>> 1) & ~BitBoardUtils.FILE_H);
+        long row = kings | attacks;
+        return attacks | (row << 8) | (row >>> 8);
+    } // attacksOf(long)
 } //kingMoves
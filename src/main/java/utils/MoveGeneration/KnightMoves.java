@@ -55,4 +55,18 @@ public class KnightMoves {
         } // for
         return bitboard;
     } // generateKnightAttacks(int)
+
+    /**
+     * Find every square attacked by a set of knights at once, by shifting the
+     * whole bitboard.
+     * 
+     * @param knights the knights' bitboard
+     * @return the attacked squares
+     */
+    public static long attacksOf(long knights) {
+        long oneFile = ((knights << 1) & ~BitBoardUtils.FILE_A) | ((knights >>> 1) & ~BitBoardUtils.FILE_H);
+        long twoFiles = ((knights << 2) & ~(BitBoardUtils.FILE_A | BitBoardUtils.FILE_B))
+                | ((knights >>> 2) & ~(BitBoardUtils.FILE_G | BitBoardUtils.FILE_H));
+        return (oneFile << 16) | (oneFile >>> 16) | (twoFiles << 8) | (twoFiles >>> 8);
+    } // attacksOf(long)
 } //KnightMoves
@@ -8,11 +8,6 @@ public class MoveGen {
 
     /** A list of all possible moves, as short[start][end] */
     public static short[][] moves = generatePossibleMoves();
-    /**
-     * An array that returns the proper part of the move needed. long[move][type] (0
-     * = start, 1 = end, 2 = promtype or other flags, 3 = promflag)
-     */
-    public static long[][] moveParts = generateMoveParts();
 
     public static long[] castleChecks = generateCastleChecks();
 
@@ -56,10 +51,10 @@ public class MoveGen {
         /* Add destination at bits 0-5 */
         move |= (destination & 0b111111);
 
-        /* Origin at bits 6-12 */
+        /* Origin at bits 6-11 */
         move |= ((origin & 0b111111) << 6);
 
-        /* Promotion type at bits 13-14 */
+        /* Promotion type at bits 12-13 */
         move |= ((promotionType & 0b11) << 12);
 
         /* Flags for en passant, promotion, and Castling */
@@ -69,241 +64,140 @@ public class MoveGen {
     } // createMove
 
     /**
-     * Get the parts of a move and create an array storing (for speed of lookup)
+     * Get the origin square of a move.
      * 
-     * @return a 2d long array representing the move parts.
+     * @param move the move
+     * @return the origin square (bits 6-11)
      */
-    private static long[][] generateMoveParts() {
-        long[][] parts = new long[Short.MAX_VALUE][4];
-        for (short move = 0; move < parts.length; move++) {
-            parts[move][0] = BitBoardUtils.setBit((move >> 6) & 0b111111);
-            parts[move][1] = BitBoardUtils.setBit(move & 0b111111);
-            parts[move][2] = (move >> 12) & 0b11;
-            parts[move][3] = (move >> 14) & 0b11;
-        } // for
-        return parts;
-    } // generateMoveParts
+    public static int origin(short move) {
+        return (move >>> 6) & 0b111111;
+    } // origin(short)
+
+    /**
+     * Get the destination square of a move.
+     * 
+     * @param move the move
+     * @return the destination square (bits 0-5)
+     */
+    public static int destination(short move) {
+        return move & 0b111111;
+    } // destination(short)
 
     /**
-     * Apply a move to a gamestate
+     * Get the promotion type of a move, or its other flag (castling, en passant)
+     * if it isn't a promotion.
+     * 
+     * @param move the move
+     * @return the promotion type or other flag (bits 12-13)
+     */
+    public static int promotionType(short move) {
+        return (move >>> 12) & 0b11;
+    } // promotionType(short)
+
+    /**
+     * Get the promotion flag of a move.
+     * 
+     * @param move the move
+     * @return the flag (bits 14-15), PawnMoves.PROMOTION_FLAG for a promotion
+     */
+    public static int flag(short move) {
+        return (move >>> 14) & 0b11;
+    } // flag(short)
+
+    /**
+     * Check if two moves play the same piece between the same squares, and
+     * promote to the same piece if they promote. The other flags are ignored,
+     * since a move read from UCI doesn't know it is castling or en passant.
+     * 
+     * @param move  a move
+     * @param other the move to compare with
+     * @return true if they are the same move, else false
+     */
+    public static boolean sameMove(short move, short other) {
+        if (origin(move) != origin(other) || destination(move) != destination(other)) {
+            return false;
+        } // if
+        if (flag(move) == PawnMoves.PROMOTION_FLAG || flag(other) == PawnMoves.PROMOTION_FLAG) {
+            return flag(move) == flag(other) && promotionType(move) == promotionType(other);
+        } // if
+        return true;
+    } // sameMove(short, short)
+
+    /**
+     * Apply a move to a gamestate. This copies the state and makes the move on the
+     * copy (see GameState.makeMove to make moves in place).
      * 
      * @param move      The move to apply
      * @param prevState The previous gamestate
-     * @return a new gamestate with the move applied
+     * @return a new gamestate with the move applied, or null if the move leaves
+     *         the king in check
      * @throws Exception if the move is impossible (nothing at start square)
      */
     public static GameState applyMove(short move, GameState prevState) throws Exception {
         GameState state = new GameState(prevState);
-        long origMask = moveParts[move][0];
-        long destMask = moveParts[move][1];
-
-        int pieceType = -1;
-        /*
-         * We want to exclude the bitboards containing multiple piecetypes from our
-         * search
-         */
-        for (int i = 0; i < 12; i++) {
-            if ((state.bitBoards[i] & origMask) != 0) {
-                pieceType = i;
-                break;
-            } // if
-        } // for
-        if (pieceType == -1) {
-            throw new Exception("Move cannot be applied, nothing at start square.");
-        } // if
-
-        /* Check if we need to remove castling rights. */
-        if (pieceType == GameState.WKING) {
-            state.whiteKingSide = false;
-            state.whiteQueenSide = false;
-        } else if (pieceType == GameState.BKING) {
-            state.blackKingSide = false;
-            state.blackQueenSide = false;
-        } //if
-        int origSquare = Long.numberOfTrailingZeros(origMask);
-
-        switch (origSquare) {
-            case 0:
-                state.whiteQueenSide = false;
-                break;
-            case 7:
-                state.whiteKingSide = false;
-                break;
-            case 56:
-                state.blackQueenSide = false;
-                break;
-            case 63:
-                state.blackKingSide = false;
-                break;
-            default:
-                break;
-        }
+        state.playMove(move);
 
-        
-
-
-        int turnBoard = (state.turnColor) ? GameState.WPIECES : GameState.BPIECES;
-        int oppBoard = (state.turnColor) ? GameState.BPIECES : GameState.WPIECES;
-
-        /* Cycle through the bitboards and clear the destination square */
-        for (int i = 0; i < 12; i++) {
-            state.bitBoards[i] &= ~destMask;
-        } // for
-        /* Modify the other important bitboards */
-        state.bitBoards[pieceType] |= destMask;
-        state.bitBoards[turnBoard] |= destMask;
-        state.bitBoards[pieceType] &= ~origMask;
-        state.bitBoards[turnBoard] &= ~origMask;
-        state.bitBoards[GameState.ALLPIECES] &= ~origMask;
-        state.bitBoards[GameState.ALLPIECES] |= destMask;
-        state.bitBoards[oppBoard] &= ~destMask;
-
-    /* Handle En Passant */
-    if (state.enPassant != -1) {
-        if (pieceType == GameState.WPAWNS || pieceType == GameState.BPAWNS) {
-        int originSquare = Long.numberOfTrailingZeros(origMask);
-        int destSquare = Long.numberOfTrailingZeros(destMask);
-
-        if (destSquare == state.enPassant) {
-            int capturedSquare = destSquare + (state.turnColor ? -8 : 8);
-            long capturedMask = BitBoardUtils.setBit(capturedSquare);
-
-            state.bitBoards[state.turnColor ? GameState.BPAWNS : GameState.WPAWNS] &= ~capturedMask;
-            state.bitBoards[oppBoard] &= ~capturedMask;
-            state.bitBoards[GameState.ALLPIECES] &= ~capturedMask;
-        }
-        } 
-    } 
-        /* Handle promotion moves */
-        if (moveParts[move][3] == PawnMoves.PROMOTION_FLAG) {
-            int promType = (int) moveParts[move][2];
-            if (state.turnColor) {
-                state.bitBoards[GameState.WPAWNS] &= ~destMask;
-                switch (promType) {
-                    case 0 -> state.bitBoards[GameState.WKNIGHTS] |= destMask;
-                    case 1 -> state.bitBoards[GameState.WBISHOPS] |= destMask;
-                    case 2 -> state.bitBoards[GameState.WROOKS] |= destMask;
-                    case 3 -> state.bitBoards[GameState.WQUEEN] |= destMask;
-                } // switch
-            } else {
-                state.bitBoards[GameState.BPAWNS] &= ~destMask;
-                switch (promType) {
-                    case 0 -> state.bitBoards[GameState.BKNIGHTS] |= destMask;
-                    case 1 -> state.bitBoards[GameState.BBISHOPS] |= destMask;
-                    case 2 -> state.bitBoards[GameState.BROOKS] |= destMask;
-                    case 3 -> state.bitBoards[GameState.BQUEEN] |= destMask;
-                } // switch
-            } // if/else
-            state.enPassant = -1;
-        } // if its a promotion
-        else {
-            if (moveParts[move][2] == KingMoves.CASTLE_FLAG) {
-                /* Kingside castle (W) */
-                if (moveParts[move][1] == BitBoardUtils.setBit(6)) {
-                    long clearMask = ~BitBoardUtils.setBit(7);
-                    state.bitBoards[GameState.WROOKS] &= clearMask;
-                    state.bitBoards[GameState.WPIECES] &= clearMask;
-                    long addMask = BitBoardUtils.setBit(5);
-                    state.bitBoards[GameState.WROOKS] |= addMask;
-                    state.bitBoards[GameState.WPIECES] |= addMask;
-                } else if (moveParts[move][1] == BitBoardUtils.setBit(62)) {
-                    long clearMask = ~BitBoardUtils.setBit(63);
-                    state.bitBoards[GameState.BROOKS] &= clearMask;
-                    state.bitBoards[GameState.BPIECES] &= clearMask;
-                    long addMask = BitBoardUtils.setBit(61);
-                    state.bitBoards[GameState.BROOKS] |= addMask;
-                    state.bitBoards[GameState.BPIECES] |= addMask;
-                } else if (moveParts[move][1] == BitBoardUtils.setBit(2)) {
-                    long clearMask = ~BitBoardUtils.setBit(0);
-                    state.bitBoards[GameState.WROOKS] &= clearMask;
-                    state.bitBoards[GameState.WPIECES] &= clearMask;
-                    long addMask = BitBoardUtils.setBit(3);
-                    state.bitBoards[GameState.WROOKS] |= addMask;
-                    state.bitBoards[GameState.WPIECES] |= addMask;
-                } else if (moveParts[move][1] == BitBoardUtils.setBit(58)) {
-                    long clearMask = ~BitBoardUtils.setBit(56);
-                    state.bitBoards[GameState.BROOKS] &= clearMask;
-                    state.bitBoards[GameState.BPIECES] &= clearMask;
-                    long addMask = BitBoardUtils.setBit(59);
-                    state.bitBoards[GameState.BROOKS] |= addMask;
-                    state.bitBoards[GameState.BPIECES] |= addMask;
-                } // if/else
-
-                state.bitBoards[GameState.ALLPIECES] = state.bitBoards[GameState.WPIECES]
-                        | state.bitBoards[GameState.BPIECES];
-            } // castlingmoves
-            /* If it was a starting pawn move, the en passant flag should be raised. */
-            if (moveParts[move][2] == PawnMoves.EN_PASSANT_FLAG) {
-                if (origSquare < 16) {
-                    state.enPassant = origSquare + 8;
-                } else {
-                    state.enPassant = origSquare - 8;
-                }
-            } else {
-                state.enPassant = -1;
-            }
-        } // if/else
         /* If it is a check, notify the user by returning null. */
-        if (!state.isLegal(state.turnColor)) {
+        if (!state.isLegal(prevState.turnColor)) {
             return null;
         } // if
-        /* Switch whos turn it is */
-        state.turnColor = state.oppColor();
         return state;
     } // applyMove(short, GameState)
 
-    public static boolean canCastleKingSide(GameState state) {
+    /**
+     * Apply a move that is already known to be legal (from GameState.legalMoves),
+     * without testing whether it leaves the king in check.
+     * 
+     * @param move      The legal move to apply
+     * @param prevState The previous gamestate
+     * @return a new gamestate with the move applied
+     */
+    public static GameState applyLegalMove(short move, GameState prevState) {
+        GameState state = new GameState(prevState);
+        state.playMove(move);
+        return state;
+    } // applyLegalMove(short, GameState)
+
+    /**
+     * Check if the side to move can castle king side: it has the right, the
+     * squares between king and rook are empty, and the king doesn't start on,
+     * pass through or land on an attacked square.
+     * 
+     * @param state    the current position
+     * @param attacked the squares the opponent attacks (GameState.attackedSquares)
+     * @return true if castling king side is legal, else false
+     */
+    public static boolean canCastleKingSide(GameState state, long attacked) {
         boolean hasRights = state.turnColor ? state.whiteKingSide : state.blackKingSide;
         if (hasRights) {
             long piecesInWay = state.turnColor ? castleChecks[0] : castleChecks[2];
-            if ((state.bitBoards[GameState.ALLPIECES] & piecesInWay) != 0) {
-                return false;
-            }
-            if (!state.isLegal(state.turnColor)) {
-                return false;
-            }
-            try {
-                int kingSquare = state.turnColor ? 4 : 60; 
-                if (applyMove(moves[kingSquare][kingSquare + 1], state) == null) {
-                    return false;
-                }
-                if (applyMove(moves[kingSquare][kingSquare + 2], state) == null) {
-                    return false;
-                }
-            } catch (Exception e) {
-                System.err.println("Castling checks not working.");
-            }
-            return true;
+            int kingSquare = state.turnColor ? 4 : 60;
+            long kingPath = BitBoardUtils.setBit(kingSquare) | BitBoardUtils.setBit(kingSquare + 1)
+                    | BitBoardUtils.setBit(kingSquare + 2);
+            return (state.bitBoards[GameState.ALLPIECES] & piecesInWay) == 0 && (attacked & kingPath) == 0;
         } // if
-
         return false;
-    }
+    } // canCastleKingSide(GameState, long)
 
-    public static boolean canCastleQueenSide(GameState state) {
+    /**
+     * Check if the side to move can castle queen side: it has the right, the
+     * squares between king and rook are empty, and the king doesn't start on,
+     * pass through or land on an attacked square.
+     * 
+     * @param state    the current position
+     * @param attacked the squares the opponent attacks (GameState.attackedSquares)
+     * @return true if castling queen side is legal, else false
+     */
+    public static boolean canCastleQueenSide(GameState state, long attacked) {
         boolean hasRights = state.turnColor ? state.whiteQueenSide : state.blackQueenSide;
-        long piecesInWay = state.turnColor ? castleChecks[1] : castleChecks[3];
         if (hasRights) {
-            if (!state.isLegal(state.turnColor)) {
-                return false;
-            }
-            if ((state.bitBoards[GameState.ALLPIECES] & piecesInWay) != 0) {
-                return false;
-            }
-            try {
-                int kingSquare = state.turnColor ? 4 : 60; 
-                if (applyMove(moves[kingSquare][kingSquare - 1], state) == null) {
-                    return false;
-                }
-                if (applyMove(moves[kingSquare][kingSquare - 2], state) == null) {
-                    return false;
-                }
-            } catch (Exception e) {
-                System.err.println("Castling checks not working.");
-            }
-            return true;
+            long piecesInWay = state.turnColor ? castleChecks[1] : castleChecks[3];
+            int kingSquare = state.turnColor ? 4 : 60;
+            long kingPath = BitBoardUtils.setBit(kingSquare) | BitBoardUtils.setBit(kingSquare - 1)
+                    | BitBoardUtils.setBit(kingSquare - 2);
+            return (state.bitBoards[GameState.ALLPIECES] & piecesInWay) == 0 && (attacked & kingPath) == 0;
         } // if
-
         return false;
-    }
+    } // canCastleQueenSide(GameState, long)
 
 } // MoveGen
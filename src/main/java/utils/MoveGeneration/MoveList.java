@@ -0,0 +1,60 @@
+package utils.MoveGeneration;
+
+/**
+ * A reusable list of moves, so move generation doesn't have to allocate. Every
+ * thread has its own lists, one per ply, for search and playout code to fill.
+ * 
+ * @author Sebastian Manza
+ */
+public class MoveList {
+    /** More moves than any chess position has (the record is 218). */
+    public static final int MAX_MOVES = 256;
+
+    /** The number of plies a thread has lists for. */
+    public static final int MAX_PLY = 256;
+
+    /** Every thread's lists, indexed by ply. */
+    private static final ThreadLocal<MoveList[]> PLY_LISTS = ThreadLocal.withInitial(() -> {
+        MoveList[] lists = new MoveList[MAX_PLY];
+        for (int ply = 0; ply < MAX_PLY; ply++) {
+            lists[ply] = new MoveList();
+        } // for
+        return lists;
+    });
+
+    /** The moves, of which the first size are valid. */
+    public final short[] moves = new short[MAX_MOVES];
+
+    /** The number of moves in the list. */
+    public int size;
+
+    /**
+     * Get the current thread's list for a ply. It stays the thread's, so it must
+     * not be handed to another thread or used at two plies at once.
+     * 
+     * @param ply the ply (distance from where the search started)
+     * @return the list for that ply
+     */
+    public static MoveList forPly(int ply) {
+        return PLY_LISTS.get()[ply];
+    } // forPly(int)
+
+    /**
+     * Get a move from the list.
+     * 
+     * @param index the index of the move
+     * @return the move
+     */
+    public short get(int index) {
+        return this.moves[index];
+    } // get(int)
+
+    /**
+     * Check if the list has no moves.
+     * 
+     * @return true if empty, else false
+     */
+    public boolean isEmpty() {
+        return this.size == 0;
+    } // isEmpty()
+} // MoveList
@@ -0,0 +1,145 @@
+package utils.MoveGeneration;
+
+/**
+ * A compact, immutable copy of a GameState for storing in tree nodes. The
+ * occupied squares are kept as a bitboard, and the piece on each of them (its
+ * bitboard index) as a 4-bit code, in square order, in two longs. Turn, engine
+ * color, castling rights, en passant square and the clocks are packed into one
+ * int. The key history isn't kept (tree nodes rebuild it from their parents). It
+ * takes a handful of longs where a GameState takes hundreds of bytes, and is
+ * unpacked back into a GameState when a node needs one.
+ *
+ * @author Sebastian Manza
+ */
+public final class PackedPosition {
+    /** The most pieces that fit (16 codes per long). */
+    public static final int MAX_PIECES = 32;
+
+    /**
+     * Flag bits: turn color, engine color, castling rights, en passant + 1,
+     * halfmove clock (8 bits) and full move number (11 bits).
+     */
+    private static final int TURN_BIT = 1;
+    private static final int ENGINE_BIT = 2;
+    private static final int CASTLING_SHIFT = 2;
+    private static final int EN_PASSANT_SHIFT = 6;
+    private static final int CLOCK_SHIFT = 13;
+    private static final int FULLMOVE_SHIFT = 21;
+
+    /** The occupied squares. */
+    public final long occupied;
+
+    /** The piece codes of the first 16 occupied squares (lowest first). */
+    private final long lowCodes;
+
+    /** The piece codes of the rest of the occupied squares. */
+    private final long highCodes;
+
+    /** The Zobrist key, so it doesn't have to be recomputed. */
+    public final long zobristKey;
+
+    /** The turn, engine color, castling rights, en passant square and clocks. */
+    private final int flags;
+
+    /**
+     * Pack a position.
+     *
+     * @param state the position to pack (not changed or kept)
+     * @throws IllegalArgumentException if there are more than MAX_PIECES pieces
+     */
+    public PackedPosition(GameState state) {
+        long allPieces = state.bitBoards[GameState.ALLPIECES];
+        if (Long.bitCount(allPieces) > MAX_PIECES) {
+            throw new IllegalArgumentException("Too many pieces to pack.");
+        } // if
+        long low = 0L;
+        long high = 0L;
+        int index = 0;
+        long pieces = allPieces;
+        while (pieces != 0) {
+            long code = state.mailbox[Long.numberOfTrailingZeros(pieces)];
+            pieces &= (pieces - 1);
+            if (index < 16) {
+                low |= code << (index * 4);
+            } else {
+                high |= code << ((index - 16) * 4);
+            } // if/else
+            index++;
+        } // while
+        this.occupied = allPieces;
+        this.lowCodes = low;
+        this.highCodes = high;
+        this.zobristKey = state.zobristKey;
+        this.flags = (state.turnColor ? TURN_BIT : 0) | (state.engineColor ? ENGINE_BIT : 0)
+                | (state.castlingBits() << CASTLING_SHIFT) | ((state.enPassant + 1) << EN_PASSANT_SHIFT)
+                | (Math.min(state.halfmoveClock, 0xFF) << CLOCK_SHIFT)
+                | (Math.min(state.fullmoveNumber, 0x7FF) << FULLMOVE_SHIFT);
+    } // PackedPosition(GameState)
+
+    /**
+     * Unpack into a new GameState, which the caller is free to change.
+     *
+     * @return the position as a GameState
+     */
+    public GameState unpack() {
+        GameState state = new GameState(turnColor(), engineColor());
+        long pieces = this.occupied;
+        int index = 0;
+        while (pieces != 0) {
+            int square = Long.numberOfTrailingZeros(pieces);
+            pieces &= (pieces - 1);
+            int code = (int) (((index < 16) ? this.lowCodes >>> (index * 4) : this.highCodes >>> ((index - 16) * 4))
+                    & 0xF);
+            state.bitBoards[code] |= 1L << square;
+            state.mailbox[square] = (byte) code;
+            index++;
+        } // while
+        for (int piece = GameState.WKING; piece <= GameState.BPAWNS; piece += 2) {
+            state.bitBoards[GameState.WPIECES] |= state.bitBoards[piece];
+            state.bitBoards[GameState.BPIECES] |= state.bitBoards[piece + 1];
+        } // for
+        state.bitBoards[GameState.ALLPIECES] = this.occupied;
+        state.setCastlingBits(this.flags >>> CASTLING_SHIFT);
+        state.enPassant = ((this.flags >>> EN_PASSANT_SHIFT) & 0x7F) - 1;
+        state.halfmoveClock = halfmoveClock();
+        state.fullmoveNumber = this.flags >>> FULLMOVE_SHIFT;
+        state.zobristKey = this.zobristKey;
+        return state;
+    } // unpack()
+
+    /**
+     * Get the color to move.
+     *
+     * @return true for white, false for black
+     */
+    public boolean turnColor() {
+        return (this.flags & TURN_BIT) != 0;
+    } // turnColor()
+
+    /**
+     * Get the engine's color.
+     *
+     * @return true for white, false for black
+     */
+    public boolean engineColor() {
+        return (this.flags & ENGINE_BIT) != 0;
+    } // engineColor()
+
+    /**
+     * Get the number of plies since the last capture or pawn move.
+     *
+     * @return the halfmove clock
+     */
+    public int halfmoveClock() {
+        return (this.flags >>> CLOCK_SHIFT) & 0xFF;
+    } // halfmoveClock()
+
+    /**
+     * Get the number of pieces on the board.
+     *
+     * @return the number of pieces
+     */
+    public int numPieces() {
+        return Long.bitCount(this.occupied);
+    } // numPieces()
+} // PackedPosition
@@ -191,4 +191,24 @@ public class PawnMoves {
     return bitboard;
   } // generateQuietMoveWPawn
 
+  /**
+   * Find every square attacked by a set of white pawns at once.
+   * 
+   * @param pawns the pawns' bitboard
+   * @return the attacked squares
+   */
+  public static long whiteAttacks(long pawns) {
+    return ((pawns << 9) & ~BitBoardUtils.FILE_A) | ((pawns << 7) & ~BitBoardUtils.FILE_H);
+  } // whiteAttacks(long)
+
+  /**
+   * Find every square attacked by a set of black pawns at once.
+   * 
+   * @param pawns the pawns' bitboard
+   * @return the attacked squares
+   */
+  public static long blackAttacks(long pawns) {
+    return ((pawns >>> 7) & ~BitBoardUtils.FILE_A) | ((pawns >>> 9) & ~BitBoardUtils.FILE_H);
+  } // blackAttacks(long)
+
 } // PawnMoves
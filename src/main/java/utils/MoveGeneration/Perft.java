@@ -0,0 +1,381 @@
+package utils.MoveGeneration;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import utils.UserInterface.UIUtils;
+
+/**
+ * Counts the leaf nodes of the move tree to a fixed depth, to check move
+ * generation against known counts and to time it. Can print the count under
+ * each root move (divide), split the root moves across threads, cache subtree
+ * counts by Zobrist key, and run a whole EPD suite.
+ *
+ * Usage: Perft [-depth n] [-divide] [-threads n] [-hash mb] [-nobulk] [-copy]
+ * [-staged] [-epd file | fen]
+ *
+ * @author Sebastian Manza
+ */
+public class Perft {
+    /** The position searched when no FEN or suite is given. */
+    private static final String START_FEN = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+
+    /** Whether to count the moves at depth 1 instead of making them. */
+    private final boolean bulk;
+
+    /** Whether to use nextMoves/applyMove (copying) instead of make/unmake. */
+    private final boolean copying;
+
+    /** Whether to generate captures and quiets as separate stages. */
+    private final boolean staged;
+
+    /** The number of threads the root moves are split across. */
+    private final int threads;
+
+    /** Cached subtree counts, or null if hashing is off. */
+    private final PerftTable table;
+
+    /**
+     * Create a perft counter.
+     *
+     * @param bulk    whether to count moves at depth 1 instead of making them
+     * @param copying whether to use the copying nextMoves/applyMove path
+     * @param staged  whether to generate captures and quiets as separate stages
+     * @param threads the number of threads to split the root moves across
+     * @param hashMB  the size of the hash table in megabytes, or 0 for none
+     */
+    public Perft(boolean bulk, boolean copying, boolean staged, int threads, int hashMB) {
+        this.bulk = bulk;
+        this.copying = copying;
+        this.staged = staged;
+        this.threads = Math.max(1, threads);
+        this.table = (hashMB > 0) ? new PerftTable(hashMB) : null;
+    } // Perft(boolean, boolean, boolean, int, int)
+
+    /**
+     * Count the leaves below each root move.
+     *
+     * @param state the root position (left unchanged)
+     * @param depth the depth to count to, at least 1
+     * @return the legal root moves and the leaf count below each, in order
+     * @throws Exception if a worker thread fails
+     */
+    public long[][] divide(GameState state, int depth) throws Exception {
+        short[] moves = state.legalMoves();
+        long[][] counts = new long[moves.length][2];
+        ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+        try {
+            List<Future<Long>> futures = new ArrayList<>();
+            for (short move : moves) {
+                /* Each task works on its own copy so make/unmake doesn't collide */
+                GameState root = new GameState(state);
+                futures.add(executor.submit(() -> {
+                    root.makeMove(move);
+                    return count(root, depth - 1, 1);
+                }));
+            } // for
+            for (int i = 0; i < moves.length; i++) {
+                counts[i][0] = moves[i];
+                counts[i][1] = futures.get(i).get();
+            } // for
+        } finally {
+            executor.shutdown();
+        } // try/finally
+        return counts;
+    } // divide(GameState, int)
+
+    /**
+     * Count the leaves of the move tree.
+     *
+     * @param state the root position (left unchanged)
+     * @param depth the depth to count to
+     * @return the number of leaves
+     * @throws Exception if a worker thread fails
+     */
+    public long perft(GameState state, int depth) throws Exception {
+        if (depth == 0) {
+            return 1;
+        } // if
+        long nodes = 0;
+        for (long[] count : divide(state, depth)) {
+            nodes += count[1];
+        } // for
+        return nodes;
+    } // perft(GameState, int)
+
+    /**
+     * Count the leaves below a position.
+     *
+     * @param state the position, which make/unmake leaves as it found it
+     * @param depth the remaining depth
+     * @param ply   the distance from the root, for picking a move list
+     * @return the number of leaves
+     * @throws Exception if applyMove fails
+     */
+    private long count(GameState state, int depth, int ply) throws Exception {
+        if (depth == 0) {
+            return 1;
+        } // if
+        if (this.table != null) {
+            long cached = this.table.probe(state.zobristKey, depth);
+            if (cached >= 0) {
+                return cached;
+            } // if
+        } // if
+        long nodes = (this.copying) ? countCopying(state, depth) : countInPlace(state, depth, ply);
+        if (this.table != null) {
+            this.table.store(state.zobristKey, depth, nodes);
+        } // if
+        return nodes;
+    } // count(GameState, int, int)
+
+    /**
+     * Count the leaves with the legal generator and make/unmake.
+     *
+     * @param state the position
+     * @param depth the remaining depth, at least 1
+     * @param ply   the distance from the root
+     * @return the number of leaves
+     * @throws Exception if applyMove fails further down
+     */
+    private long countInPlace(GameState state, int depth, int ply) throws Exception {
+        if (!this.staged) {
+            return countStage(state, depth, ply, GameState.ALL_MOVES);
+        } // if
+        return countStage(state, depth, ply, GameState.CAPTURES) + countStage(state, depth, ply, GameState.QUIETS);
+    } // countInPlace(GameState, int, int)
+
+    /**
+     * Count the leaves below the moves of some generation stages.
+     *
+     * @param state  the position
+     * @param depth  the remaining depth, at least 1
+     * @param ply    the distance from the root
+     * @param stages the stages to generate
+     * @return the number of leaves
+     * @throws Exception if applyMove fails further down
+     */
+    private long countStage(GameState state, int depth, int ply, int stages) throws Exception {
+        MoveList list = MoveList.forPly(ply);
+        int size = state.legalMoves(list, stages);
+        if (depth == 1 && this.bulk) {
+            return size;
+        } // if
+        long nodes = 0;
+        for (int i = 0; i < size; i++) {
+            state.makeMove(list.moves[i]);
+            nodes += count(state, depth - 1, ply + 1);
+            state.unmakeMove();
+        } // for
+        return nodes;
+    } // countStage(GameState, int, int, int)
+
+    /**
+     * Count the leaves with the pseudo-legal generator and applyMove, the way
+     * the engine used to walk the tree.
+     *
+     * @param state the position
+     * @param depth the remaining depth, at least 1
+     * @return the number of leaves
+     * @throws Exception if applyMove fails
+     */
+    private long countCopying(GameState state, int depth) throws Exception {
+        long nodes = 0;
+        for (short move : state.nextMoves()) {
+            GameState next = MoveGen.applyMove(move, state);
+            if (next != null) {
+                nodes += (depth == 1 && this.bulk) ? 1 : count(next, depth - 1, 0);
+            } // if
+        } // for
+        return nodes;
+    } // countCopying(GameState, int)
+
+    /**
+     * Build a position from a FEN, filling in the clocks if they're missing (as
+     * in EPD lines).
+     *
+     * @param fen the FEN
+     * @return the position
+     */
+    public static GameState fromFEN(String fen) {
+        String[] fields = fen.trim().split("\\s+");
+        StringBuilder full = new StringBuilder(fen.trim());
+        for (int i = fields.length; i < 6; i++) {
+            full.append((i == 4) ? " 0" : " 1");
+        } // for
+        GameState state = new GameState(true, true);
+        state.setBoardFEN(full.toString());
+        return state;
+    } // fromFEN(String)
+
+    /**
+     * Run every position in an EPD suite (lines like "fen ;D1 20 ;D2 400") up
+     * to a depth and compare with the expected counts.
+     *
+     * @param path     the suite file
+     * @param maxDepth the deepest count to check
+     * @return the number of counts that didn't match
+     * @throws Exception if the file can't be read or a worker fails
+     */
+    public int runSuite(String path, int maxDepth) throws Exception {
+        int failures = 0;
+        long totalNodes = 0;
+        long start = System.nanoTime();
+        try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                } // if
+                String[] parts = line.split(";");
+                GameState state = fromFEN(parts[0]);
+                StringBuilder result = new StringBuilder(parts[0].trim());
+                for (int i = 1; i < parts.length; i++) {
+                    String[] entry = parts[i].trim().split("\\s+");
+                    int depth = Integer.parseInt(entry[0].substring(1));
+                    if (depth > maxDepth) {
+                        continue;
+                    } // if
+                    long expected = Long.parseLong(entry[1]);
+                    long nodes = perft(state, depth);
+                    totalNodes += nodes;
+                    if (nodes == expected) {
+                        result.append(" D").append(depth).append(" ok");
+                    } else {
+                        result.append(" D").append(depth).append(" FAILED (").append(nodes)
+                                .append(" != ").append(expected).append(")");
+                        failures++;
+                    } // if/else
+                } // for
+                System.out.println(result);
+            } // while
+        } catch (IOException e) {
+            throw new Exception("Could not read suite " + path, e);
+        } // try/catch
+        printSpeed(totalNodes, System.nanoTime() - start);
+        System.out.println((failures == 0) ? "All counts match." : failures + " counts did not match.");
+        return failures;
+    } // runSuite(String, int)
+
+    /**
+     * Print a node count with the time taken and nodes per second.
+     *
+     * @param nodes the node count
+     * @param nanos the time taken in nanoseconds
+     */
+    private static void printSpeed(long nodes, long nanos) {
+        long millis = Math.max(1, nanos / 1_000_000);
+        System.out.println("Nodes: " + nodes + "  Time: " + millis + " ms  NPS: " + (nodes * 1000 / millis));
+    } // printSpeed(long, long)
+
+    public static void main(String[] args) throws Exception {
+        int depth = 5;
+        int threads = 1;
+        int hashMB = 0;
+        boolean showDivide = false;
+        boolean bulk = true;
+        boolean copying = false;
+        boolean staged = false;
+        String suite = null;
+        StringBuilder fen = new StringBuilder();
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-depth" -> depth = Integer.parseInt(args[++i]);
+                case "-threads" -> threads = Integer.parseInt(args[++i]);
+                case "-hash" -> hashMB = Integer.parseInt(args[++i]);
+                case "-divide" -> showDivide = true;
+                case "-nobulk" -> bulk = false;
+                case "-copy" -> copying = true;
+                case "-staged" -> staged = true;
+                case "-epd" -> suite = args[++i];
+                default -> fen.append(args[i]).append(' ');
+            } // switch
+        } // for
+
+        Perft perft = new Perft(bulk, copying, staged, threads, hashMB);
+        if (suite != null) {
+            System.exit((perft.runSuite(suite, depth) == 0) ? 0 : 1);
+        } // if
+
+        GameState state = fromFEN((fen.length() == 0) ? START_FEN : fen.toString());
+        long start = System.nanoTime();
+        long nodes = 0;
+        if (depth == 0) {
+            nodes = 1;
+        } else {
+            for (long[] count : perft.divide(state, depth)) {
+                if (showDivide) {
+                    System.out.println(UIUtils.moveToUCI((short) count[0]) + ": " + count[1]);
+                } // if
+                nodes += count[1];
+            } // for
+        } // if/else
+        printSpeed(nodes, System.nanoTime() - start);
+    } // main(String[])
+
+    /**
+     * A fixed-size table of subtree counts keyed by Zobrist key and depth.
+     * Threads share it without locks: each slot stores the key XORed with the
+     * data, so a slot torn by two writers just fails to match.
+     */
+    private static class PerftTable {
+        /** The keys, XORed with the data. */
+        private final long[] keys;
+
+        /** The count in the upper bits and the depth in the low 8. */
+        private final long[] data;
+
+        /** Masks a key down to a slot. */
+        private final int mask;
+
+        /**
+         * Create a table.
+         *
+         * @param megabytes the size of the table
+         */
+        PerftTable(int megabytes) {
+            int slots = Integer.highestOneBit((int) Math.min(1L << 30, (megabytes * (1L << 20)) / 16));
+            this.keys = new long[slots];
+            this.data = new long[slots];
+            this.mask = slots - 1;
+        } // PerftTable(int)
+
+        /**
+         * Look up a count.
+         *
+         * @param key   the position's Zobrist key
+         * @param depth the remaining depth
+         * @return the count, or -1 if it isn't stored
+         */
+        long probe(long key, int depth) {
+            int slot = (int) (key ^ (key >>> 32) ^ depth) & this.mask;
+            long entry = this.data[slot];
+            if ((this.keys[slot] ^ entry) == key && (entry & 0xFF) == depth) {
+                return entry >>> 8;
+            } // if
+            return -1;
+        } // probe(long, int)
+
+        /**
+         * Store a count, replacing whatever was in its slot.
+         *
+         * @param key   the position's Zobrist key
+         * @param depth the remaining depth
+         * @param count the number of leaves
+         */
+        void store(long key, int depth, long count) {
+            int slot = (int) (key ^ (key >>> 32) ^ depth) & this.mask;
+            long entry = (count << 8) | depth;
+            this.data[slot] = entry;
+            this.keys[slot] = key ^ entry;
+        } // store(long, int, long)
+    } // PerftTable
+} // Perft
@@ -1,8 +1,11 @@
 package utils.MoveGeneration;
 
+import java.util.SplittableRandom;
+
 /**
- * A class that generates all slide moves needed. Will hopefully be updated to
- * magic bitboards at a later date.
+ * A class that generates all slide moves needed. Attacks are looked up through
+ * (fancy) magic bitboards, with the older blockers and beyond method kept as a
+ * reference implementation.
  * 
  * @author Sebastian Manza
  */
@@ -19,8 +22,79 @@ public class SlideMoves {
     public static long[] Blockers = generateBlockers();
     public static long[][] Behind = generateBehind();
 
+    /** The squares strictly between two squares on a line (0 if not on a line). */
+    public static long[][] Between = generateBetween();
+
+    /** The whole line through two squares, edge to edge (0 if not on a line). */
+    public static long[][] Line = generateLine();
+
+    /** The relevant occupancy masks for the magic lookups (board edges excluded). */
+    public static long[] RookMasks = generateMasks(ROOK_DIRECTIONS);
+    public static long[] BishopMasks = generateMasks(BISHOP_DIRECTIONS);
+
     /**
-     * The main function in this class that is meant to be called.
+     * The magic multipliers. These were found with a sparse random search, and
+     * map every relevant occupancy of a square to a distinct (or constructively
+     * colliding) index.
+     */
+    private static final long[] ROOK_MAGICS = {
+            0x5080021040088020L, 0x0240100420004000L, 0x0100084011002002L, 0x8080100080080004L,
+            0x0080080004008002L, 0x1880020041040080L, 0x0C00011002008408L, 0x060000C1A1168402L,
+            0x000180024000803AL, 0x0000802000804000L, 0x6021002000110042L, 0x0102801000280281L,
+            0x8058800800800400L, 0x0080808002000400L, 0x8202808009000200L, 0x101300008200C500L,
+            0x61800C4000200044L, 0x0000444008201000L, 0x88A0004010004802L, 0x0001010008201000L,
+            0x2120808004000800L, 0x0026080120104004L, 0x0C00950100020004L, 0x0044220001008044L,
+            0x2180004140002002L, 0x0000810100400020L, 0x0400200100410014L, 0x0002000A00102240L,
+            0x0008000404004020L, 0x0000040080020080L, 0x0142020400081001L, 0x0041000300008342L,
+            0x0080004000402000L, 0x044000C081802008L, 0x0000200288801000L, 0x0108008008801000L,
+            0x1480080082800400L, 0x520D0004010002E8L, 0x0404082A0C001001L, 0x8000010042000084L,
+            0x0340802040008004L, 0x00B0005420004000L, 0x0831001020010040L, 0x4060080010008080L,
+            0x0008020004004040L, 0x0004008002008004L, 0x4012000184420008L, 0x2018004081020004L,
+            0x0C40003048800480L, 0x120C802042030200L, 0x1C08100080200880L, 0x000110010A210100L,
+            0x0284080100500500L, 0x2008020080040080L, 0x0010584390060C00L, 0x0000088041040A00L,
+            0x2000800820110041L, 0x28C0400010802101L, 0x100409C020030011L, 0x0050201000080501L,
+            0x1201000490280023L, 0x8301000822140005L, 0x2018100081080244L, 0x211A008020410C12L
+    };
+    private static final long[] BISHOP_MAGICS = {
+            0x0602600654010220L, 0x00201820C0808400L, 0x8010110051020440L, 0x0184410120040400L,
+            0x0004242009319580L, 0x8802084248404480L, 0x0E24241202300040L, 0x0450440201012040L,
+            0x9800100490208620L, 0x2900040104690204L, 0x82A84218810100C3L, 0x2002180A02202A80L,
+            0x0188020210404080L, 0x0000089010480941L, 0x00004C4A10108802L, 0x8811008208112400L,
+            0x41B100A00C10A084L, 0x0044000901140C08L, 0x000200102C0010A0L, 0x8008002082810040L,
+            0x2201010820082280L, 0x1051001201010120L, 0x088100808B882100L, 0x08008402004C0A40L,
+            0x0A34400004D00420L, 0x0110104402043100L, 0x4004280204080020L, 0x1042040008010820L,
+            0x0B01010008104008L, 0x1210010212824300L, 0x0000853010841000L, 0x010C104020821093L,
+            0x0010080A40200240L, 0x040801284090022AL, 0x8041080100020401L, 0x0404404800328201L,
+            0x00400302002100C8L, 0x4004042584241000L, 0x40080D0042012800L, 0x4106041040010444L,
+            0x040101904000F000L, 0x400500D820006444L, 0x2040084410000208L, 0x0241812018080100L,
+            0x0000040894000200L, 0x9011104510400200L, 0x0050061485001420L, 0x2001080891800302L,
+            0x0C02521005200004L, 0x4018250430040803L, 0x0210020100A88000L, 0x11006A6442020000L,
+            0x1401014030444210L, 0x1000080208020801L, 0x0308209104010802L, 0x0094181208520088L,
+            0x0240140084042004L, 0x8020208048029000L, 0x4000000084008840L, 0xA180004108840404L,
+            0x0002004204208201L, 0x00C024200810A120L, 0x009C444808880288L, 0x0040A20401082100L
+    };
+
+    /** The shifts and offsets into the shared attack table. */
+    private static final int[] ROOK_SHIFTS = new int[64];
+    private static final int[] BISHOP_SHIFTS = new int[64];
+    private static final int[] ROOK_OFFSETS = new int[64];
+    private static final int[] BISHOP_OFFSETS = new int[64];
+
+    /** Every rook and bishop attack board, indexed by offset + magic index. */
+    private static final long[] MAGIC_ATTACKS = new long[generateOffsets()];
+
+    static {
+        for (int square = 0; square < 64; square++) {
+            fillMagic(square, RookMasks[square], ROOK_MAGICS[square], ROOK_SHIFTS[square], ROOK_OFFSETS[square],
+                    ROOK_DIRECTIONS);
+            fillMagic(square, BishopMasks[square], BISHOP_MAGICS[square], BISHOP_SHIFTS[square],
+                    BISHOP_OFFSETS[square], BISHOP_DIRECTIONS);
+        } // for
+    } // static
+
+    /**
+     * Generate slide attacks with the blockers and beyond method. This is slower
+     * than the magic lookups below, and is kept to check them against.
      * 
      * @param square    the origin square
      * @param occupied  the occupied bitboard (bitboard of the opposite color)
@@ -42,6 +116,153 @@ public class SlideMoves {
 
     } // queenAttacks
 
+    /**
+     * Look up the attacks of a rook.
+     * 
+     * @param square   the origin square
+     * @param occupied the bitboard of every piece on the board
+     * @return the attack board of the rook, including the first blocker of each ray
+     */
+    public static long rookAttacks(int square, long occupied) {
+        int index = (int) (((occupied & RookMasks[square]) * ROOK_MAGICS[square]) >>> ROOK_SHIFTS[square]);
+        return MAGIC_ATTACKS[ROOK_OFFSETS[square] + index];
+    } // rookAttacks(int, long)
+
+    /**
+     * Look up the attacks of a bishop.
+     * 
+     * @param square   the origin square
+     * @param occupied the bitboard of every piece on the board
+     * @return the attack board of the bishop, including the first blocker of each ray
+     */
+    public static long bishopAttacks(int square, long occupied) {
+        int index = (int) (((occupied & BishopMasks[square]) * BISHOP_MAGICS[square]) >>> BISHOP_SHIFTS[square]);
+        return MAGIC_ATTACKS[BISHOP_OFFSETS[square] + index];
+    } // bishopAttacks(int, long)
+
+    /**
+     * Look up the attacks of a queen (the union of the rook and bishop attacks).
+     * 
+     * @param square   the origin square
+     * @param occupied the bitboard of every piece on the board
+     * @return the attack board of the queen, including the first blocker of each ray
+     */
+    public static long queenAttacks(int square, long occupied) {
+        return rookAttacks(square, occupied) | bishopAttacks(square, occupied);
+    } // queenAttacks(int, long)
+
+    /**
+     * Check every magic lookup against the blockers and beyond method, for every
+     * square and every relevant occupancy (plus some noise outside of the masks).
+     * 
+     * @return true if every lookup matched, else false
+     */
+    public static boolean verifyMagics() {
+        SplittableRandom random = new SplittableRandom();
+        for (int square = 0; square < 64; square++) {
+            long[] masks = { RookMasks[square], BishopMasks[square] };
+            for (long mask : masks) {
+                /* Walk every subset of the mask (Carry-Rippler). */
+                long subset = 0L;
+                do {
+                    long occupied = subset | (random.nextLong() & ~mask & ~BitBoardUtils.setBit(square));
+                    if (rookAttacks(square, occupied) != slideAttacks(square, occupied, RookAttacks)
+                            || bishopAttacks(square, occupied) != slideAttacks(square, occupied, BishopAttacks)
+                            || queenAttacks(square, occupied) != slideAttacks(square, occupied, QueenAttacks)) {
+                        return false;
+                    } // if
+                    subset = (subset - mask) & mask;
+                } while (subset != 0);
+            } // for
+        } // for
+        return true;
+    } // verifyMagics()
+
+    /**
+     * Set the shifts and offsets of every square, and size the attack table.
+     * 
+     * @return the total number of entries in the attack table
+     */
+    private static int generateOffsets() {
+        int size = 0;
+        for (int square = 0; square < 64; square++) {
+            ROOK_SHIFTS[square] = 64 - Long.bitCount(RookMasks[square]);
+            ROOK_OFFSETS[square] = size;
+            size += 1 << Long.bitCount(RookMasks[square]);
+        } // for
+        for (int square = 0; square < 64; square++) {
+            BISHOP_SHIFTS[square] = 64 - Long.bitCount(BishopMasks[square]);
+            BISHOP_OFFSETS[square] = size;
+            size += 1 << Long.bitCount(BishopMasks[square]);
+        } // for
+        return size;
+    } // generateOffsets()
+
+    /**
+     * Fill the part of the attack table belonging to a square.
+     * 
+     * @param square     the origin square
+     * @param mask       the relevant occupancy mask
+     * @param magic      the magic number of the square
+     * @param shift      the shift applied after the multiplication
+     * @param offset     where the square starts in the attack table
+     * @param directions the directions the piece slides in
+     * @throws IllegalStateException if the magic number maps two different attack
+     *                               boards to the same index
+     */
+    private static void fillMagic(int square, long mask, long magic, int shift, int offset, int[] directions) {
+        boolean[] used = new boolean[1 << Long.bitCount(mask)];
+
+        /* Walk every subset of the mask (Carry-Rippler). */
+        long subset = 0L;
+        do {
+            long attacks = walkAttacks(square, subset, directions);
+            int index = (int) ((subset * magic) >>> shift);
+            if (used[index] && MAGIC_ATTACKS[offset + index] != attacks) {
+                throw new IllegalStateException("Bad magic number for square " + square);
+            } // if
+            used[index] = true;
+            MAGIC_ATTACKS[offset + index] = attacks;
+            subset = (subset - mask) & mask;
+        } while (subset != 0);
+    } // fillMagic(int, long, long, int, int, int[])
+
+    /**
+     * Slowly walk the attack rays of a piece, stopping at the first blocker.
+     * 
+     * @param square     the origin square
+     * @param occupied   the occupied bitboard
+     * @param directions the directions the piece slides in
+     * @return the attack board
+     */
+    private static long walkAttacks(int square, long occupied, int[] directions) {
+        long attacks = 0L;
+        for (int dir : directions) {
+            long ray = createRay(square, dir);
+            int sq = square + dir;
+            while (sq >= 0 && sq < 64 && (ray & BitBoardUtils.setBit(sq)) != 0) {
+                attacks |= BitBoardUtils.setBit(sq);
+                if ((occupied & BitBoardUtils.setBit(sq)) != 0) {
+                    break;
+                } // if
+                sq += dir;
+            } // while
+        } // for
+        return attacks;
+    } // walkAttacks(int, long, int[])
+
+    private static long[] generateMasks(int[] directions) {
+        long[] masks = new long[64];
+        for (int square = 0; square < 64; square++) {
+            long bitBoard = 0L;
+            for (int dir : directions) {
+                bitBoard |= createShorterRay(square, dir);
+            } // for
+            masks[square] = bitBoard;
+        } // for
+        return masks;
+    } // generateMasks(int[])
+
     private static long[] generateBlockers() {
         long[] blockers = new long[64];
         for (int square = 0; square < 64; square++) {
@@ -103,6 +324,34 @@ public class SlideMoves {
         return behind;
     }
 
+    private static long[][] generateBetween() {
+        long[][] between = new long[64][64];
+        for (int from = 0; from < 64; from++) {
+            for (int to = 0; to < 64; to++) {
+                int direction = direction(from, to);
+                if (direction != 0) {
+                    between[from][to] = createRay(from, direction) & ~createRay(to, direction)
+                            & ~BitBoardUtils.setBit(to);
+                } // if
+            } // for
+        } // for
+        return between;
+    } // generateBetween()
+
+    private static long[][] generateLine() {
+        long[][] line = new long[64][64];
+        for (int from = 0; from < 64; from++) {
+            for (int to = 0; to < 64; to++) {
+                int direction = direction(from, to);
+                if (direction != 0) {
+                    line[from][to] = createRay(from, direction) | createRay(from, -direction)
+                            | BitBoardUtils.setBit(from);
+                } // if
+            } // for
+        } // for
+        return line;
+    } // generateLine()
+
     private static int direction(int square, int blocker) {
         int rowDiff = (blocker / 8) - (square / 8);
         int colDiff = (blocker % 8) - (square % 8);
@@ -221,10 +470,11 @@ public class SlideMoves {
         long queenAttacksE4 = SlideMoves.RookAttacks[7]; // E4 is square 27
         long queenBlockers = SlideMoves.Blockers[7];
         long occupied = BitBoardUtils.setBit(23);
-        long queenBlocked = SlideMoves.slideAttacks(7, occupied, RookAttacks);
+        long queenBlocked = SlideMoves.rookAttacks(7, occupied);
         BitBoardUtils.printBitboard(queenBlocked);
         BitBoardUtils.printBitboard(queenAttacksE4);
         BitBoardUtils.printBitboard(queenBlockers);
+        System.out.println("Magic lookups match blockers and beyond: " + verifyMagics());
     }
 
 } // SlideMoves
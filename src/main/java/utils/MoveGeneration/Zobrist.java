@@ -0,0 +1,84 @@
+package utils.MoveGeneration;
+
+import java.util.SplittableRandom;
+
+/**
+ * The random keys used to hash a GameState into a 64-bit Zobrist key. A key is
+ * the XOR of the keys of every piece on its square, the side to move, the
+ * castling rights and the en passant file, so a move only has to XOR in what
+ * it changes.
+ * 
+ * @author Sebastian Manza
+ */
+public class Zobrist {
+    /** The seed, fixed so the keys are the same every run. */
+    private static final long SEED = 0x5441525321L;
+
+    /** The keys of every piece on every square, as long[piece][square]. */
+    public static final long[][] PIECES = new long[12][64];
+
+    /** The key XORed in when it is black to move. */
+    public static final long BLACK_TO_MOVE;
+
+    /** The keys of every combination of castling rights (see GameState.castlingBits). */
+    public static final long[] CASTLING = new long[16];
+
+    /** The keys of the en passant file. */
+    public static final long[] EN_PASSANT = new long[8];
+
+    static {
+        SplittableRandom random = new SplittableRandom(SEED);
+        for (int piece = 0; piece < 12; piece++) {
+            for (int square = 0; square < 64; square++) {
+                PIECES[piece][square] = random.nextLong();
+            } // for
+        } // for
+        BLACK_TO_MOVE = random.nextLong();
+
+        /* Each right gets a key, and a combination is the XOR of its rights. */
+        long[] rights = { random.nextLong(), random.nextLong(), random.nextLong(), random.nextLong() };
+        for (int bits = 0; bits < 16; bits++) {
+            for (int right = 0; right < 4; right++) {
+                if ((bits & (1 << right)) != 0) {
+                    CASTLING[bits] ^= rights[right];
+                } // if
+            } // for
+        } // for
+        for (int file = 0; file < 8; file++) {
+            EN_PASSANT[file] = random.nextLong();
+        } // for
+    } // static
+
+    /**
+     * Compute the key of a state from scratch.
+     * 
+     * @param state the state to hash
+     * @return the Zobrist key
+     */
+    public static long hash(GameState state) {
+        long key = 0L;
+        for (int piece = 0; piece < 12; piece++) {
+            long board = state.bitBoards[piece];
+            while (board != 0) {
+                key ^= PIECES[piece][Long.numberOfTrailingZeros(board)];
+                board &= (board - 1);
+            } // while
+        } // for
+        if (!state.turnColor) {
+            key ^= BLACK_TO_MOVE;
+        } // if
+        key ^= CASTLING[state.castlingBits()];
+        key ^= enPassantKey(state.enPassant);
+        return key;
+    } // hash(GameState)
+
+    /**
+     * Get the key of an en passant square.
+     * 
+     * @param enPassant the en passant square, or -1 if there is none
+     * @return the key of its file, or 0 if there is none
+     */
+    public static long enPassantKey(int enPassant) {
+        return (enPassant == -1) ? 0L : EN_PASSANT[enPassant & 7];
+    } // enPassantKey(int)
+} // Zobrist
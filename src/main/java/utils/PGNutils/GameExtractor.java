@@ -11,7 +11,9 @@ import com.github.bhlangonijr.chesslib.game.Game;
 import com.github.bhlangonijr.chesslib.pgn.PgnIterator;
 
 /**
- * Extract games into a csv format (FEN,eval) for use with the CNN
+ * Extract games into a csv format (FEN,eval,next move) for use with the CNN. The
+ * next move (in UCI format, empty after a game's last move) is the policy
+ * target, see PolicyGameIterator.
  * 
  * @author Sebastian Manza
  */
@@ -32,7 +34,7 @@ public class GameExtractor {
 		int written = 0;
                 for (String[] pair : fenEvalPairs) {
                     if (written >= startMove) {
-		    	writer.write(pair[0] + "," + pair[1]);
+		    	writer.write(pair[0] + "," + pair[1] + "," + pair[2]);
                     	writer.newLine();
 		    }
 		    written++;
@@ -49,7 +51,7 @@ public class GameExtractor {
 		    int writtenVal = 0;
                 for (String[] pair : fenEvalPairs) {
 		    if (writtenVal >= startMoveValidation) {
-                    	writerValid.write(pair[0] + "," + pair[1]);
+                    	writerValid.write(pair[0] + "," + pair[1] + "," + pair[2]);
                     	writerValid.newLine();
 		    }
 		    writtenVal++;
@@ -100,8 +102,11 @@ public class GameExtractor {
                 hasEvaluation = true;
             }
 
+            /* The move played from the position, if the game goes on */
+            String nextMove = (i + 1 < moves.length) ? game.getHalfMoves().get(i + 1).toString() : "";
+
             if (evaluation != null) {
-                fenEvalPairs.add(new String[]{fen, evaluation});
+                fenEvalPairs.add(new String[]{fen, evaluation, nextMove});
             }
         }
 
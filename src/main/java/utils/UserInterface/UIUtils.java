@@ -48,7 +48,7 @@ public class UIUtils {
     public static String moveToUCI(short move) throws Exception {
         int col;
         int row;
-        int startingSquare = Long.numberOfTrailingZeros(MoveGen.moveParts[move][0]);
+        int startingSquare = MoveGen.origin(move);
         row = startingSquare / 8;
         col = startingSquare % 8;
 
@@ -56,14 +56,14 @@ public class UIUtils {
         str.append((char) (col + (int) 'a'));
         str.append(Integer.toString(row + 1));
 
-        int endingSquare = Long.numberOfTrailingZeros(MoveGen.moveParts[move][1]);
+        int endingSquare = MoveGen.destination(move);
         row = endingSquare / 8;
         col = endingSquare % 8;
         str.append((char) (col + (int) 'a'));
         str.append(Integer.toString(row + 1));
 
-        if (MoveGen.moveParts[move][3] == PawnMoves.PROMOTION_FLAG) {
-            int promType = (int) MoveGen.moveParts[move][2];
+        if (MoveGen.flag(move) == PawnMoves.PROMOTION_FLAG) {
+            int promType = MoveGen.promotionType(move);
             char prom = switch(promType) {
                 case 0 -> 'n';
                 case 1 -> 'b';
@@ -80,7 +80,7 @@ public class UIUtils {
     public static String toNotation(short move) {
         int col;
         int row;
-        int startingSquare = Long.numberOfTrailingZeros(MoveGen.moveParts[move][0]);
+        int startingSquare = MoveGen.origin(move);
         row = startingSquare / 8;
         col = startingSquare % 8;
 
@@ -89,7 +89,7 @@ public class UIUtils {
         str.append(Integer.toString(row + 1));
         str.append("-");
 
-        int endingSquare = Long.numberOfTrailingZeros(MoveGen.moveParts[move][1]);
+        int endingSquare = MoveGen.destination(move);
         row = endingSquare / 8;
         col = endingSquare % 8;
         str.append((char) (col + (int) 'a'));